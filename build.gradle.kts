@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.5.6"
     id("io.spring.dependency-management") version "1.1.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "se.johan"
@@ -23,15 +24,38 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-data-mongodb")
     implementation("org.springframework.boot:spring-boot-starter-web")
+    // Reaktiv variant av API:et, aktiveras med profilen reactive. Bara biblioteken, inte startarna:
+    // utan Reactor Netty körs WebFlux på samma Tomcat och standardläget förblir Spring MVC
+    implementation("org.springframework:spring-webflux")
+    implementation("org.mongodb:mongodb-driver-reactivestreams")
     implementation("org.springframework.boot:spring-boot-starter-validation")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
+    implementation("org.springframework.boot:spring-boot-starter-aop")
     testImplementation("org.springframework.boot:spring-boot-starter-test")
+    // Integrationstester mot en riktig MongoDB (replica set med en nod), kräver Docker
+    testImplementation("org.springframework.boot:spring-boot-testcontainers")
+    testImplementation("org.testcontainers:junit-jupiter")
+    testImplementation("org.testcontainers:mongodb")
     implementation("io.jsonwebtoken:jjwt-api:0.12.6")
     implementation("io.jsonwebtoken:jjwt-impl:0.12.6")
     implementation("io.jsonwebtoken:jjwt-jackson:0.12.6")
+    implementation("com.github.ben-manes.caffeine:caffeine")
+    implementation("io.micrometer:micrometer-core")
+    runtimeOnly("io.micrometer:micrometer-registry-prometheus")
     implementation("org.springframework.boot:spring-boot-starter-security")
+    jmhImplementation("org.springframework:spring-test")
 }
 
-
 tasks.withType<Test> {
     useJUnitPlatform()
 }
+
+// Benchmarks ligger i src/jmh/java och körs med ./gradlew jmh
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    resultFormat = "JSON"
+    // gc-profilern rapporterar allokerade bytes per operation (gc.alloc.rate.norm)
+    profilers = listOf("gc")
+}
@@ -0,0 +1,75 @@
+// Lastjämförelse mellan MVC och WebFlux för läs-API:et.
+//
+// Starta applikationen en gång utan och en gång med profilen reactive och kör samma skript mot båda:
+//   SPRING_PROFILES_ACTIVE=reactive ./gradlew bootRun
+//   k6 run -e BASE_URL=http://localhost:8080 -e USERNAME=load -e PASSWORD=secret load/event-read-load.js
+//
+// Jämför http_req_duration (p95/p99), http_reqs (genomströmning) och, via /actuator/prometheus på management-porten (8081),
+// jvm_threads_live_threads och process_cpu_usage vid samma antal virtuella användare.
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const USERNAME = __ENV.USERNAME || 'load';
+const PASSWORD = __ENV.PASSWORD || 'secret';
+
+export const options = {
+    scenarios: {
+        reads: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '30s', target: 50 },
+                { duration: '1m', target: 200 },
+                { duration: '1m', target: 500 },
+                { duration: '30s', target: 0 },
+            ],
+        },
+    },
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+    },
+};
+
+// Samma blandning som frontend: status och summering oftast, hela listan mer sällan
+const READS = [
+    { path: '/api/v1/event/getKvittStatus', weight: 4 },
+    { path: '/api/v1/event/summary', weight: 3 },
+    { path: '/api/v1/event/getUnPaidEvents', weight: 2 },
+    { path: '/api/v1/event/getAllEvents', weight: 1 },
+];
+const TOTAL_WEIGHT = READS.reduce((sum, read) => sum + read.weight, 0);
+
+export function setup() {
+    const json = { headers: { 'Content-Type': 'application/json' } };
+    // Användaren finns redan vid andra körningen, då svarar create med fel och det är okej
+    http.post(`${BASE_URL}/api/v1/kvittUser/create`, JSON.stringify({ username: USERNAME, password: PASSWORD }), json);
+
+    const login = http.post(`${BASE_URL}/api/v1/kvittUser/login`, JSON.stringify({ username: USERNAME, password: PASSWORD }), json);
+    check(login, { 'login ok': (response) => response.status === 200 });
+
+    const token = login.json('token');
+    for (let i = 0; i < 200; i++) {
+        http.post(`${BASE_URL}/api/v1/event/create`, JSON.stringify({
+            title: `load ${i}`,
+            amount: (i % 50) + 10,
+            expense: i % 3 !== 0,
+            paid: false,
+            username: USERNAME,
+        }), { headers: { 'Content-Type': 'application/json', Authorization: `Bearer ${token}` } });
+    }
+
+    return { token };
+}
+
+export default function (data) {
+    let pick = Math.random() * TOTAL_WEIGHT;
+    const read = READS.find((candidate) => (pick -= candidate.weight) < 0) || READS[0];
+
+    // Ingen If-None-Match, så varje anrop läser från databasen
+    const response = http.get(`${BASE_URL}${read.path}?username=${USERNAME}`, {
+        headers: { Authorization: `Bearer ${data.token}` },
+        tags: { endpoint: read.path },
+    });
+    check(response, { 'status 200': (r) => r.status === 200 });
+}
@@ -0,0 +1,114 @@
+// Blandad läs- och skrivlast för att välja storlek på MongoDB-klientens connection pool (kvitt.mongo.pool.*).
+//
+// Kör skriptet med olika poolinställningar och jämför resultaten:
+//   MONGO_POOL_MAX_SIZE=20 ./gradlew bootRun
+//   k6 run -e BASE_URL=http://localhost:8080 -e USERS=20 -e PASSWORD=secret load/event-write-load.js
+//
+// Jämför http_req_duration per endpoint (p95/p99) och andelen fel. Via /actuator/prometheus på management-porten (8081):
+// mongodb_driver_pool_checkedout (hur nära maxSize poolen går), mongodb_driver_pool_waitqueuesize
+// (anrop som väntar på en anslutning) och mongodb_driver_commands_seconds. Fel med status 500 och
+// MongoTimeoutException i loggen betyder att kvitt.mongo.pool.max-wait-time passerades.
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const USERS = parseInt(__ENV.USERS || '20', 10);
+const PASSWORD = __ENV.PASSWORD || 'secret';
+
+export const options = {
+    scenarios: {
+        mixed: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '30s', target: 50 },
+                { duration: '1m', target: 200 },
+                { duration: '1m', target: 500 },
+                { duration: '30s', target: 0 },
+            ],
+        },
+    },
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+    },
+};
+
+// Skrivningar tar användarens lås och kör en transaktion, så de håller en anslutning längre än läsningarna
+const ACTIONS = [
+    { name: 'read', weight: 7 },
+    { name: 'create', weight: 2 },
+    { name: 'edit', weight: 1 },
+];
+const TOTAL_WEIGHT = ACTIONS.reduce((sum, action) => sum + action.weight, 0);
+const READS = [
+    '/api/v1/event/getKvittStatus',
+    '/api/v1/event/summary',
+    '/api/v1/event/getUnPaidEvents',
+];
+// Varje virtuell användare håller sina egna events som den kan ändra och ta bort
+const MAX_OWN_EVENTS = 20;
+const ownEvents = [];
+
+export function setup() {
+    const json = { headers: { 'Content-Type': 'application/json' } };
+    const tokens = [];
+
+    for (let i = 0; i < USERS; i++) {
+        const username = `load-write-${i}`;
+        // Användaren finns redan vid andra körningen, då svarar create med fel och det är okej
+        http.post(`${BASE_URL}/api/v1/kvittUser/create`, JSON.stringify({ username, password: PASSWORD }), json);
+
+        const login = http.post(`${BASE_URL}/api/v1/kvittUser/login`, JSON.stringify({ username, password: PASSWORD }), json);
+        check(login, { 'login ok': (response) => response.status === 200 });
+        tokens.push({ username, token: login.json('token') });
+    }
+
+    return { tokens };
+}
+
+export default function (data) {
+    // Flera virtuella användare delar samma kvitt-användare, så skrivningar konkurrerar om samma lås som i drift
+    const user = data.tokens[__VU % data.tokens.length];
+    const params = (endpoint) => ({
+        headers: { 'Content-Type': 'application/json', Authorization: `Bearer ${user.token}` },
+        tags: { endpoint },
+    });
+
+    let pick = Math.random() * TOTAL_WEIGHT;
+    const action = ACTIONS.find((candidate) => (pick -= candidate.weight) < 0) || ACTIONS[0];
+
+    if (action.name === 'read') {
+        const path = READS[Math.floor(Math.random() * READS.length)];
+        const response = http.get(`${BASE_URL}${path}?username=${user.username}`, params(path));
+        check(response, { 'status 200': (r) => r.status === 200 });
+    } else if (action.name === 'create' || ownEvents.length === 0) {
+        const response = http.post(`${BASE_URL}/api/v1/event/create`, JSON.stringify({
+            title: `load ${__VU}-${__ITER}`,
+            amount: Math.floor(Math.random() * 50) + 10,
+            expense: Math.random() < 0.7,
+            paid: false,
+            username: user.username,
+        }), params('/api/v1/event/create'));
+        check(response, { 'status 201': (r) => r.status === 201 });
+
+        if (response.status === 201) {
+            ownEvents.push(response.json());
+        }
+        // Håller antalet events per användare stabilt under hela körningen
+        if (ownEvents.length > MAX_OWN_EVENTS) {
+            const removed = ownEvents.shift();
+            const deleted = http.del(`${BASE_URL}/api/v1/event/delete?id=${removed.id}`, null, params('/api/v1/event/delete'));
+            check(deleted, { 'status 204': (r) => r.status === 204 });
+        }
+    } else {
+        const event = ownEvents[Math.floor(Math.random() * ownEvents.length)];
+        const response = http.put(`${BASE_URL}/api/v1/event/edit`, JSON.stringify({
+            id: event.id,
+            title: event.title,
+            amount: Math.floor(Math.random() * 50) + 10,
+            expense: event.expense,
+            dateTime: event.dateTime,
+        }), params('/api/v1/event/edit'));
+        check(response, { 'status 202': (r) => r.status === 202 });
+    }
+}
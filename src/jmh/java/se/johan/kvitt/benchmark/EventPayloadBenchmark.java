@@ -0,0 +1,103 @@
+package se.johan.kvitt.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.johan.kvitt.event.dto.response.EventColumnsResponseDTO;
+import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.objectMapper.EventMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Jämför storlek och serialiseringstid för getAllEvents som en array av objekt (standard)
+ * och i kolumnformat ({@code format=columns}), med och utan gzip.
+ * Svarens storlek mäts inte av JMH; kör {@link #main} för att skriva ut den.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EventPayloadBenchmark {
+
+    private static final String USERNAME = "benchmark";
+
+    @Param({"10000"})
+    public int eventsPerUser;
+
+    private ObjectMapper objectMapper;
+    private EventMapper eventMapper;
+    private List<Event> events;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Samma inställning för datum som Spring Boots ObjectMapper (ISO-strängar)
+        objectMapper = JsonMapper.builder()
+                .findAndAddModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        eventMapper = new EventMapper();
+        events = InMemoryEventStore.withUser(USERNAME, eventsPerUser, 42L).findByUsername(USERNAME);
+    }
+
+    @Benchmark
+    public byte[] serializeRows() throws IOException {
+        List<EventGetAllEventsByUsernameResponseDTO> rows = events.stream()
+                .map(eventMapper::toGetAllEventsByIdDTO)
+                .toList();
+        return objectMapper.writeValueAsBytes(rows);
+    }
+
+    @Benchmark
+    public byte[] serializeColumns() throws IOException {
+        EventColumnsResponseDTO columns = eventMapper.toColumnsDTO(events, true);
+        return objectMapper.writeValueAsBytes(columns);
+    }
+
+    @Benchmark
+    public byte[] serializeRowsGzip() throws IOException {
+        return gzip(serializeRows());
+    }
+
+    @Benchmark
+    public byte[] serializeColumnsGzip() throws IOException {
+        return gzip(serializeColumns());
+    }
+
+    /**
+     * Skriver ut svarens storlek i bytes för varje format, utanför JMH:s mätning.
+     * Körs efter {@code ./gradlew jmhJar} med
+     * {@code java -cp build/libs/<jar>-jmh.jar se.johan.kvitt.benchmark.EventPayloadBenchmark [eventsPerUser]}.
+     */
+    public static void main(String[] args) throws IOException {
+        EventPayloadBenchmark benchmark = new EventPayloadBenchmark();
+        benchmark.eventsPerUser = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        benchmark.setUp();
+
+        System.out.printf("Payload for %d events: rows %d B (gzip %d B), columns %d B (gzip %d B)%n",
+                benchmark.eventsPerUser,
+                benchmark.serializeRows().length, benchmark.serializeRowsGzip().length,
+                benchmark.serializeColumns().length, benchmark.serializeColumnsGzip().length);
+    }
+
+    private static byte[] gzip(byte[] payload) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write(payload);
+        }
+        return compressed.toByteArray();
+    }
+}
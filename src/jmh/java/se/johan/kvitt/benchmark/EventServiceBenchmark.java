@@ -0,0 +1,109 @@
+package se.johan.kvitt.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountTotal;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.objectMapper.EventMapper;
+import se.johan.kvitt.event.service.EventService;
+import se.johan.kvitt.event.service.EventSettlementEngine;
+import se.johan.kvitt.event.service.LedgerDelta;
+import se.johan.kvitt.event.service.SettlementIndex;
+import se.johan.kvitt.event.service.SettlementPlan;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter de beräkningar i EventService som växer med antalet events per användare.
+ * Databasen ersätts av {@link InMemoryEventStore} så att endast JVM-arbetet mäts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventServiceBenchmark {
+
+    private static final String USERNAME = "benchmark";
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int eventsPerUser;
+
+    private InMemoryEventStore store;
+    private EventMapper eventMapper;
+    private List<Event> expensesInOrder;
+    private BigDecimal totalIncome;
+    private SettlementIndex settlementIndex;
+    private Event editedExpense;
+    private Event editedExpenseAlternative;
+    private List<EventAmountTotal> amountTotals;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = InMemoryEventStore.withUser(USERNAME, eventsPerUser, 42L);
+        eventMapper = new EventMapper();
+        expensesInOrder = store.findExpensesForSettlement(USERNAME);
+        totalIncome = store.totalIncome(USERNAME);
+
+        settlementIndex = SettlementIndex.of(USERNAME, expensesInOrder, 0L);
+        // Beloppet på en utgift mitt i listan växlar mellan två värden så att indexet inte driver iväg
+        editedExpense = expensesInOrder.get(expensesInOrder.size() / 2);
+        editedExpenseAlternative = new Event(editedExpense.getId(), editedExpense.getTitle(), editedExpense.getAmount().add(BigDecimal.ONE),
+                true, editedExpense.getDateTime(), false, USERNAME);
+        editedExpenseAlternative.setVersion(0L);
+        amountTotals = store.sumAmountsByExpense(USERNAME);
+    }
+
+    @Benchmark
+    public SettlementPlan settlementPlan() {
+        return EventSettlementEngine.plan(expensesInOrder, totalIncome);
+    }
+
+    /**
+     * Samma utgift ändras fram och tillbaka; jämförs med settlementPlan som går igenom alla utgifter.
+     */
+    @Benchmark
+    public SettlementPlan settlementIndexEdit() {
+        settlementIndex.replace(editedExpense, editedExpenseAlternative);
+        settlementIndex.settle(totalIncome);
+        settlementIndex.replace(editedExpenseAlternative, editedExpense);
+        return settlementIndex.settle(totalIncome);
+    }
+
+    /**
+     * Inkomster och utgifter summeras när ledgern byggs om (EventLedgerService.rebuild): beloppen läses
+     * från cursorn och summeras i öre av LedgerDelta. Läsningar av totalerna går sedan via ledgern.
+     */
+    @Benchmark
+    public EventLedger incomeExpenseReductionLedgerRebuild() {
+        LedgerDelta totals = new LedgerDelta();
+        store.forEachAmountByUsername(USERNAME, event -> totals.add(event, 1));
+        return totals.toLedger(USERNAME);
+    }
+
+    /**
+     * Summary-endpointen: summeringen per typ körs i databasen ($group), så JVM:en gör bara
+     * sammanslagningen i EventService.toSummary. Växer inte med antalet events, vilket är poängen.
+     */
+    @Benchmark
+    public EventSummaryResponseDTO incomeExpenseReductionSummary() {
+        return EventService.toSummary(amountTotals);
+    }
+
+    @Benchmark
+    public List<EventGetAllEventsByUsernameResponseDTO> mapToGetAllEventsDto() {
+        return store.findByUsername(USERNAME).stream()
+                .map(eventMapper::toGetAllEventsByIdDTO)
+                .toList();
+    }
+}
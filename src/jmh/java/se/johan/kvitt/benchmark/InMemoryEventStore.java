@@ -0,0 +1,97 @@
+package se.johan.kvitt.benchmark;
+
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountTotal;
+import se.johan.kvitt.event.model.EventAmountView;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Ersätter EventRepository i benchmarks: håller en användares events i minnet
+ * och svarar på samma frågor som repositoryt.
+ */
+public class InMemoryEventStore {
+
+    private final Map<String, List<Event>> eventsByUsername = new HashMap<>();
+
+    /**
+     * Skapar en användare med {@code eventCount} events där ungefär var tredje är en inkomst.
+     * Inkomsterna räcker till ungefär hälften av utgifterna så att settlement får en frontier mitt i listan.
+     */
+    public static InMemoryEventStore withUser(String username, int eventCount, long seed) {
+        Random random = new Random(seed);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        List<Event> events = new ArrayList<>(eventCount);
+
+        for (int i = 0; i < eventCount; i++) {
+            boolean expense = i % 3 != 0;
+            BigDecimal amount = BigDecimal.valueOf(100 + random.nextInt(10_000), 2);
+            if (!expense) {
+                amount = amount.multiply(BigDecimal.TWO);
+            }
+
+            Event event = new Event(
+                    Integer.toHexString(i),
+                    "Event " + i,
+                    amount,
+                    expense,
+                    start.plusMinutes(i),
+                    false,
+                    username
+            );
+            event.setVersion(0L);
+            events.add(event);
+        }
+
+        InMemoryEventStore store = new InMemoryEventStore();
+        store.eventsByUsername.put(username, events);
+        return store;
+    }
+
+    public List<Event> findByUsername(String username) {
+        return eventsByUsername.getOrDefault(username, List.of());
+    }
+
+    public List<Event> findExpensesForSettlement(String username) {
+        return findByUsername(username).stream()
+                .filter(Event::isExpense)
+                .sorted(Comparator.comparing(Event::getDateTime))
+                .toList();
+    }
+
+    public BigDecimal totalIncome(String username) {
+        return findByUsername(username).stream()
+                .filter(event -> !event.isExpense())
+                .map(Event::getAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    /**
+     * Som {@code EventProjectionRepository#forEachAmountByUsername}: bara beloppsfälten, ett event i taget.
+     */
+    public long forEachAmountByUsername(String username, Consumer<EventAmountView> action) {
+        List<Event> events = findByUsername(username);
+        events.forEach(event -> action.accept(EventAmountView.of(event)));
+        return events.size();
+    }
+
+    /**
+     * Som {@code EventRepository#sumAmountsByExpense}, där $group körs i databasen.
+     */
+    public List<EventAmountTotal> sumAmountsByExpense(String username) {
+        BigDecimal totalIncome = totalIncome(username);
+        BigDecimal totalExpense = findByUsername(username).stream()
+                .filter(Event::isExpense)
+                .map(Event::getAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return List.of(new EventAmountTotal(false, totalIncome), new EventAmountTotal(true, totalExpense));
+    }
+}
@@ -0,0 +1,103 @@
+package se.johan.kvitt.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
+import se.johan.kvitt.auth.UserRole;
+import se.johan.kvitt.kvittUser.jwt.JwtAuthenticationFilter;
+import se.johan.kvitt.kvittUser.jwt.JwtUtils;
+import se.johan.kvitt.kvittUser.model.KvittUser;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter filtrets väg per anrop, för giltig och ogiltig token.
+ * Körs med gc-profilern (se jmh-blocket i build.gradle.kts) så att gc.alloc.rate.norm visar
+ * allokerade bytes per anrop. Metoderna med suffixet PerRequest återskapar det tidigare
+ * beteendet (ny WebAuthenticationDetailsSource och authorities via stream för varje anrop) som jämförelse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JwtAuthenticationFilterBenchmark {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> { };
+    private static final WebAuthenticationDetailsSource SHARED_DETAILS_SOURCE = new WebAuthenticationDetailsSource();
+
+    private JwtAuthenticationFilter filter;
+    private MockHttpServletRequest validTokenRequest;
+    private MockHttpServletRequest invalidTokenRequest;
+    private MockHttpServletResponse response;
+    private Set<UserRole> userRoles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        JwtUtils jwtUtils = JwtUtilsBenchmark.newJwtUtils(10_000);
+        filter = new JwtAuthenticationFilter(jwtUtils, null, new SimpleMeterRegistry());
+
+        userRoles = Set.of(UserRole.USER, UserRole.ADMIN);
+        KvittUser kvittUser = new KvittUser(null, "benchmark", "password", true, true, true, true, userRoles);
+        String token = jwtUtils.generateJwtToken(kvittUser);
+
+        validTokenRequest = requestWithToken(token);
+        // Ändrad signatur, som från en klient med en gammal eller manipulerad token
+        invalidTokenRequest = requestWithToken(token.substring(0, token.length() - 4) + "AAAA");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public void filterValidToken() throws Exception {
+        filter.doFilter(validTokenRequest, response, NO_OP_CHAIN);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public void filterInvalidToken() throws Exception {
+        filter.doFilter(invalidTokenRequest, response, NO_OP_CHAIN);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public List<SimpleGrantedAuthority> authoritiesPrecomputed() {
+        return UserRole.getAuthorities(userRoles);
+    }
+
+    @Benchmark
+    public List<SimpleGrantedAuthority> authoritiesPerRequest() {
+        return userRoles.stream()
+                .flatMap(role -> role.getUserAuthorities().stream())
+                .toList();
+    }
+
+    @Benchmark
+    public WebAuthenticationDetails detailsSharedSource() {
+        return SHARED_DETAILS_SOURCE.buildDetails(validTokenRequest);
+    }
+
+    @Benchmark
+    public WebAuthenticationDetails detailsPerRequest() {
+        return new WebAuthenticationDetailsSource().buildDetails(validTokenRequest);
+    }
+
+    private static MockHttpServletRequest requestWithToken(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/event/getAllEvents");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        return request;
+    }
+}
@@ -0,0 +1,76 @@
+package se.johan.kvitt.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.johan.kvitt.auth.UserRole;
+import se.johan.kvitt.kvittUser.jwt.JwtClaims;
+import se.johan.kvitt.kvittUser.jwt.JwtUtils;
+import se.johan.kvitt.kvittUser.model.KvittUser;
+
+import java.lang.reflect.Field;
+import java.util.Base64;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter generering och verifiering av JWT, med och utan cachen för verifierade tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtUtilsBenchmark {
+
+    private JwtUtils cachingJwtUtils;
+    private JwtUtils nonCachingJwtUtils;
+    private KvittUser kvittUser;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        cachingJwtUtils = newJwtUtils(10_000);
+        nonCachingJwtUtils = newJwtUtils(0);
+
+        kvittUser = new KvittUser(null, "benchmark", "password", true, true, true, true, Set.of(UserRole.USER));
+        token = cachingJwtUtils.generateJwtToken(kvittUser);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return cachingJwtUtils.generateJwtToken(kvittUser);
+    }
+
+    @Benchmark
+    public JwtClaims parseTokenCached() {
+        return cachingJwtUtils.parseJwtToken(token);
+    }
+
+    @Benchmark
+    public JwtClaims parseTokenUncached() {
+        return nonCachingJwtUtils.parseJwtToken(token);
+    }
+
+    // JwtUtils får sina värden via @Value, så de sätts här med reflection istället för av Spring
+    static JwtUtils newJwtUtils(long cacheSize) throws ReflectiveOperationException {
+        byte[] secret = new byte[32];
+        new Random(7).nextBytes(secret);
+
+        JwtUtils jwtUtils = new JwtUtils();
+        setField(jwtUtils, "base64EncodedSecretKey", Base64.getEncoder().encodeToString(secret));
+        setField(jwtUtils, "verifiedTokenCacheSize", cacheSize);
+        jwtUtils.init();
+        return jwtUtils;
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
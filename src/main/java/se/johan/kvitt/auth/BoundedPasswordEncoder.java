@@ -0,0 +1,88 @@
+package se.johan.kvitt.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * PasswordEncoder som utför den CPU-tunga hashningen på en egen, begränsad trådpool.
+ * På så sätt kan en mängd samtidiga inloggningar inte ta alla kärnor från övriga anrop.
+ * När poolens kö är full avvisas anropet direkt med {@link PasswordHashingUnavailableException}.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final ExecutorService executor;
+    private final Duration timeout;
+    private final Counter rejectedCounter;
+
+    /**
+     * Konstruktor för BoundedPasswordEncoder.
+     * @param delegate Encodern som utför själva hashningen.
+     * @param executor Den begränsade trådpoolen hashningen körs på.
+     * @param timeout Maximal tid ett anrop väntar på sitt resultat.
+     * @param meterRegistry Registry där antalet avvisade anrop räknas.
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate, ExecutorService executor, Duration timeout, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.timeout = timeout;
+        this.rejectedCounter = Counter.builder("kvitt.password.hashing.rejected")
+                .description("Password hashing requests rejected because the queue was full or timed out")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Kontrollerar endast hashens format, ingen hashning, och körs därför direkt.
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T execute(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw new PasswordHashingUnavailableException("Password hashing queue is full", e);
+        }
+
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejectedCounter.increment();
+            throw new PasswordHashingUnavailableException("Password hashing timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingUnavailableException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package se.johan.kvitt.auth;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Kastas när lösenordshashningens kö är full eller inte hinner svara.
+ * Besvaras med 503 så att klienten kan försöka igen istället för att belasta servern ytterligare.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PasswordHashingUnavailableException extends RuntimeException {
+
+    /**
+     * Konstruktor för PasswordHashingUnavailableException.
+     * @param message Beskrivning av varför hashningen inte kunde utföras.
+     * @param cause Det underliggande felet.
+     */
+    public PasswordHashingUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -2,6 +2,7 @@ package se.johan.kvitt.auth;
 
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import static se.johan.kvitt.auth.UserPermission.*;
@@ -38,8 +39,12 @@ public enum UserRole {
             )
     );
 
+    // Authorities för varje kombination av roller, indexerat på en bitmask av rollernas ordinal
+    private static final List<List<SimpleGrantedAuthority>> AUTHORITIES_BY_ROLE_MASK = buildAuthoritiesByRoleMask();
+
     private final String roleName;
     private final Set<UserPermission> userPermissions;
+    private final List<SimpleGrantedAuthority> userAuthorities;
 
     /**
      * Konstruktor för UserRole.
@@ -49,6 +54,7 @@ public enum UserRole {
     UserRole(String roleName, Set<UserPermission> userPermissions) {
         this.roleName = roleName;
         this.userPermissions = userPermissions;
+        this.userAuthorities = buildAuthorities(roleName, userPermissions);
     }
 
     /**
@@ -68,21 +74,56 @@ public enum UserRole {
     }
 
     /**
-     * Transformerar rollen och dess rättigheter till en lista av SimpleGrantedAuthority.
+     * Hämtar rollen och dess rättigheter som en lista av SimpleGrantedAuthority.
      * Används av Spring Security för att hantera auktorisering.
+     * Listan byggs en gång när enumen laddas och är oföränderlig.
      * @return En lista med authorities för rollen och dess permissions.
      */
     public List<SimpleGrantedAuthority> getUserAuthorities() {
+        return userAuthorities;
+    }
+
+    /**
+     * Hämtar de sammanlagda authorities för en uppsättning roller, utan dubbletter.
+     * Alla kombinationer av roller är förberäknade, så anropet skapar inga nya objekt.
+     * @param userRoles Rollerna som authorities ska hämtas för.
+     * @return En oföränderlig lista med authorities.
+     */
+    public static List<SimpleGrantedAuthority> getAuthorities(Set<UserRole> userRoles) {
+        int mask = 0;
+        for (UserRole userRole : userRoles) {
+            mask |= 1 << userRole.ordinal();
+        }
+        return AUTHORITIES_BY_ROLE_MASK.get(mask);
+    }
 
+    private static List<SimpleGrantedAuthority> buildAuthorities(String roleName, Set<UserPermission> userPermissions) {
         List<SimpleGrantedAuthority> authorityList = new ArrayList<>();
 
-        authorityList.add(new SimpleGrantedAuthority(this.roleName));
+        authorityList.add(new SimpleGrantedAuthority(roleName));
         authorityList.addAll(
-                this.userPermissions.stream().map(
+                userPermissions.stream().map(
                         userPermission -> new SimpleGrantedAuthority(userPermission.getUserPermission())
                 ).toList()
         );
 
-        return authorityList;
+        return List.copyOf(authorityList);
+    }
+
+    private static List<List<SimpleGrantedAuthority>> buildAuthoritiesByRoleMask() {
+        UserRole[] userRoles = values();
+        List<List<SimpleGrantedAuthority>> authoritiesByMask = new ArrayList<>(1 << userRoles.length);
+
+        for (int mask = 0; mask < 1 << userRoles.length; mask++) {
+            Set<SimpleGrantedAuthority> authorities = new LinkedHashSet<>();
+            for (UserRole userRole : userRoles) {
+                if ((mask & 1 << userRole.ordinal()) != 0) {
+                    authorities.addAll(userRole.userAuthorities);
+                }
+            }
+            authoritiesByMask.add(List.copyOf(authorities));
+        }
+
+        return List.copyOf(authoritiesByMask);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package se.johan.kvitt.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.cors.CorsConfiguration;
@@ -22,8 +23,31 @@ public class AppCorsConfig {
      ** @return En konfigurerad CorsConfigurationSource som tillåter specifika ursprung och metoder.
      */
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public CorsConfigurationSource corsConfigurationSource() {
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", corsConfiguration());
 
+        return source;
+    }
+
+    /**
+     * Samma CORS-inställningar för det reaktiva API:et (profilen reactive).
+     * @return En CorsConfigurationSource för WebFlux.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public org.springframework.web.cors.reactive.CorsConfigurationSource reactiveCorsConfigurationSource() {
+        org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource source =
+                new org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", corsConfiguration());
+
+        return source;
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private CorsConfiguration corsConfiguration() {
         CorsConfiguration corsConfiguration = new CorsConfiguration();
 
         // Definierar tillåtna domäner för anrop
@@ -39,16 +63,15 @@ public class AppCorsConfig {
         corsConfiguration.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE"));
 
         // Tillåtna HTTP-headers
-        corsConfiguration.setAllowedHeaders(List.of("Content-Type", "Authorization", "X-Requested-With"));
+        corsConfiguration.setAllowedHeaders(List.of("Content-Type", "Authorization", "X-Requested-With", "If-None-Match"));
+
+        // ETag måste exponeras för att frontend ska kunna läsa den och skicka tillbaka den i If-None-Match
+        corsConfiguration.setExposedHeaders(List.of("ETag"));
 
         // Möjliggör hantering av cookies och autentiseringstokens över domäner
         corsConfiguration.setAllowCredentials(true);
 
-
-        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
-        source.registerCorsConfiguration("/**", corsConfiguration);
-
-        return source;
+        return corsConfiguration;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package se.johan.kvitt.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Konfigurationsklass för applikationens metrics.
+ * Mätvärdena exponeras för Prometheus via /actuator/prometheus på management-porten (management.server.port).
+ */
+@Configuration
+public class AppMetricsConfig {
+
+    /**
+     * Skapar aspekten som gör att {@code @Timed} på controllers och services registrerar timers.
+     * @param meterRegistry Registry där timers registreras.
+     * @return En TimedAspect-instans.
+     */
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
@@ -0,0 +1,62 @@
+package se.johan.kvitt.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import se.johan.kvitt.event.repository.ShardKeyGuard;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Konfigurationsklass för MongoDB-klientens connection pool.
+ * Med virtuella trådar begränsas antalet samtidiga anrop inte längre av Tomcats trådpool,
+ * så det är poolen som styr hur många databasanrop som kan pågå samtidigt.
+ */
+@Configuration
+public class AppMongoClientConfig {
+
+    /**
+     * Applicerar poolinställningarna från {@code kvitt.mongo.pool.*} på MongoDB-klienten.
+     * Standardvärdena är inte uppmätta: maxSize 100, minSize 0 och maxConnecting 2 är drivrutinens egna
+     * standardvärden, och maxWaitTime 2s är vald för att ett anrop ska misslyckas snabbt istället för att
+     * vänta drivrutinens två minuter. Storleken ställs in med lasttestet {@code load/event-write-load.js}.
+     * @param maxSize Maximalt antal anslutningar i poolen.
+     * @param minSize Antal anslutningar som hålls öppna även när det är lugnt.
+     * @param maxWaitTime Hur länge ett anrop får vänta på en ledig anslutning innan det misslyckas.
+     * @param maxConnecting Maximalt antal anslutningar som får etableras samtidigt.
+     * @return En customizer som Spring Boot applicerar när MongoClient skapas.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoConnectionPoolCustomizer(
+            @Value("${kvitt.mongo.pool.max-size:100}") int maxSize,
+            @Value("${kvitt.mongo.pool.min-size:0}") int minSize,
+            @Value("${kvitt.mongo.pool.max-wait-time:2s}") Duration maxWaitTime,
+            @Value("${kvitt.mongo.pool.max-connecting:2}") int maxConnecting) {
+
+        return builder -> builder.applyToConnectionPoolSettings(pool -> pool
+                .maxSize(maxSize)
+                .minSize(minSize)
+                .maxWaitTime(maxWaitTime.toMillis(), TimeUnit.MILLISECONDS)
+                .maxConnecting(maxConnecting)
+        );
+    }
+
+    /**
+     * Registrerar {@link ShardKeyGuard} på MongoDB-klienten, så att kommandon mot events som saknar
+     * användarnamnet (shard-nyckeln) loggas och räknas. Slås på med {@code kvitt.mongo.sharding.guard.enabled}.
+     * @param meterRegistry Används för räknaren {@code kvitt.mongo.untargeted} om Micrometer finns.
+     * @return En customizer som Spring Boot applicerar när MongoClient skapas.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "kvitt.mongo.sharding.guard.enabled", havingValue = "true")
+    public MongoClientSettingsBuilderCustomizer shardKeyGuardCustomizer(ObjectProvider<MeterRegistry> meterRegistry) {
+        ShardKeyGuard shardKeyGuard = new ShardKeyGuard(Map.of("events", "username"), meterRegistry.getIfAvailable());
+        return builder -> builder.addCommandListener(shardKeyGuard);
+    }
+}
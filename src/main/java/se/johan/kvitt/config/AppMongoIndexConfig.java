@@ -0,0 +1,99 @@
+package se.johan.kvitt.config;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Konfigurationsklass som säkerställer databasens index vid uppstart.
+ * Spring Boot skapar inte index automatiskt, så här skapas de index som är deklarerade
+ * på entiteterna (t.ex. {@code @CompoundIndex} och {@code @Indexed}) innan applikationen tar emot anrop.
+ */
+@Configuration
+public class AppMongoIndexConfig implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppMongoIndexConfig.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mongoMappingContext;
+    private final boolean failFast;
+
+    /**
+     * Konstruktor för AppMongoIndexConfig.
+     * @param mongoTemplate Template som används för att skapa och läsa index.
+     * @param mongoMappingContext Mapping-kontext som innehåller applikationens entiteter.
+     * @param failFast Om uppstarten ska avbrytas när ett index saknas eller inte kan skapas.
+     */
+    @Autowired
+    public AppMongoIndexConfig(MongoTemplate mongoTemplate,
+                               MongoMappingContext mongoMappingContext,
+                               @Value("${kvitt.mongo.indexes.fail-fast:false}") boolean failFast) {
+        this.mongoTemplate = mongoTemplate;
+        this.mongoMappingContext = mongoMappingContext;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Skapar saknade index för alla entiteter och kontrollerar därefter att de finns i databasen.
+     * Beroende på {@code kvitt.mongo.indexes.fail-fast} avbryts uppstarten eller så loggas felet.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        IndexResolver indexResolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+        List<String> problems = new ArrayList<>();
+
+        for (MongoPersistentEntity<?> entity : mongoMappingContext.getPersistentEntities()) {
+            if (!entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                continue;
+            }
+
+            IndexOperations indexOperations = mongoTemplate.indexOps(entity.getType());
+            List<String> expectedIndexes = new ArrayList<>();
+
+            for (IndexDefinition indexDefinition : indexResolver.resolveIndexFor(entity.getTypeInformation())) {
+                Document indexOptions = indexDefinition.getIndexOptions();
+                expectedIndexes.add(indexOptions.getString("name"));
+                try {
+                    indexOperations.createIndex(indexDefinition);
+                } catch (RuntimeException e) {
+                    problems.add(entity.getCollection() + "." + indexOptions.getString("name") + " (" + e.getMessage() + ")");
+                }
+            }
+
+            Set<String> existingIndexes = indexOperations.getIndexInfo().stream()
+                    .map(IndexInfo::getName)
+                    .collect(Collectors.toSet());
+
+            expectedIndexes.stream()
+                    .filter(name -> name != null && !existingIndexes.contains(name))
+                    .forEach(name -> problems.add(entity.getCollection() + "." + name + " (missing)"));
+        }
+
+        if (problems.isEmpty()) {
+            logger.info("MongoDB indexes verified");
+            return;
+        }
+
+        if (failFast) {
+            throw new IllegalStateException("MongoDB indexes could not be ensured: " + problems);
+        }
+        logger.error("MongoDB indexes could not be ensured: {}", problems);
+    }
+}
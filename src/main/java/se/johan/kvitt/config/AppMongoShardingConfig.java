@@ -0,0 +1,63 @@
+package se.johan.kvitt.config;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.HashedIndex;
+import se.johan.kvitt.event.model.Event;
+
+/**
+ * Konfigurationsklass som shardar events på hashat användarnamn vid uppstart.
+ * Kräver att applikationen är ansluten till en mongos. Alla frågor mot events innehåller
+ * användarnamnet, så varje anrop går till en enda shard (se ShardKeyGuard).
+ * Slås på med {@code kvitt.mongo.sharding.enabled}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "kvitt.mongo.sharding.enabled", havingValue = "true")
+public class AppMongoShardingConfig implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppMongoShardingConfig.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoClient mongoClient;
+
+    /**
+     * Konstruktor för AppMongoShardingConfig.
+     * @param mongoTemplate Template som används för att skapa shard-nyckelns index.
+     * @param mongoClient Klient som används för admin-kommandot shardCollection.
+     */
+    @Autowired
+    public AppMongoShardingConfig(MongoTemplate mongoTemplate, MongoClient mongoClient) {
+        this.mongoTemplate = mongoTemplate;
+        this.mongoClient = mongoClient;
+    }
+
+    /**
+     * Skapar det hashade indexet på username och shardar collectionen. Kommandot är idempotent
+     * när collectionen redan är shardad med samma nyckel, så det körs vid varje uppstart.
+     * @throws IllegalStateException Om collectionen inte kan shardas, t.ex. för att anslutningen inte går till en mongos.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        String namespace = mongoTemplate.getDb().getName() + "." + mongoTemplate.getCollectionName(Event.class);
+
+        // En collection med data måste ha ett index på shard-nyckeln innan den kan shardas
+        mongoTemplate.indexOps(Event.class).createIndex(HashedIndex.hashed("username"));
+
+        try {
+            mongoClient.getDatabase("admin").runCommand(new Document("shardCollection", namespace)
+                    .append("key", new Document("username", "hashed")));
+        } catch (MongoCommandException e) {
+            throw new IllegalStateException("Could not shard " + namespace + ": " + e.getErrorMessage(), e);
+        }
+
+        logger.info("Sharded {} on hashed username", namespace);
+    }
+}
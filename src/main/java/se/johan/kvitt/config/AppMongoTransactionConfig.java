@@ -0,0 +1,35 @@
+package se.johan.kvitt.config;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
+
+/**
+ * Konfigurationsklass för MongoDB-transaktioner. Ett event och ledger/rollups skrivs i samma
+ * transaktion (se UserWriteGuard#inTransaction), vilket kräver ett replica set eller ett shardat kluster.
+ * Slås på med {@code kvitt.mongo.transactions.enabled=true}; utan den skrivs eventet och ledgern var för sig,
+ * vilket fungerar mot en fristående mongod.
+ */
+@Configuration
+@ConditionalOnProperty(name = "kvitt.mongo.transactions.enabled", havingValue = "true")
+public class AppMongoTransactionConfig {
+
+    /**
+     * Transaktionerna läser och skriver med majority, så att det en transaktion läser också har
+     * levererats av change streams (som bara ser majority-committade ändringar) när strömmen är ikapp.
+     * @param mongoDatabaseFactory Samma fabrik som MongoTemplate använder, så att templatens anrop deltar i transaktionen.
+     * @return Transaktionshanteraren som UserWriteGuard kör skrivningarna i.
+     */
+    @Bean
+    public MongoTransactionManager transactionManager(MongoDatabaseFactory mongoDatabaseFactory) {
+        return new MongoTransactionManager(mongoDatabaseFactory, TransactionOptions.builder()
+                .readConcern(ReadConcern.MAJORITY)
+                .writeConcern(WriteConcern.MAJORITY)
+                .build());
+    }
+}
@@ -1,25 +1,103 @@
 package se.johan.kvitt.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import se.johan.kvitt.auth.BoundedPasswordEncoder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Konfigurationsklass för hantering av lösenordskryptering i applikationen.
  * Denna klass definierar vilken algoritm som ska användas för att säkert lagra
- * och verifiera användarlösenord.
+ * och verifiera användarlösenord, samt på vilken trådpool hashningen körs.
  */
 @Configuration
 public class AppPasswordConfig {
 
+    private static final String BCRYPT_ID = "bcrypt";
+
+    /**
+     * Skapar den begränsade trådpool som all lösenordshashning körs på.
+     * Poolen har ett fast antal trådar och en begränsad kö; anrop utöver kön avvisas direkt.
+     * @param threads Antal trådar, 0 betyder en tråd per processorkärna.
+     * @param queueCapacity Hur många hashningar som får vänta i kö.
+     * @param meterRegistry Registry för poolens metrics (kö, aktiva trådar m.m.) om en sådan finns.
+     * @return En ThreadPoolExecutor reserverad för lösenordshashning.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor passwordHashingExecutor(
+            @Value("${kvitt.password.hashing.threads:0}") int threads,
+            @Value("${kvitt.password.hashing.queue-capacity:64}") int queueCapacity,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        meterRegistry.ifAvailable(registry ->
+                new ExecutorServiceMetrics(executor, "passwordHashing", Tags.empty()).bindTo(registry));
+
+        return executor;
+    }
+
     /**
      * Skapar en bean för lösenordskryptering med BCrypt-algoritmen.
      * BCrypt använder en saltad hash-funktion vilket skyddar mot brute force-attacker.
-     ** @return En PasswordEncoder-instans (BCrypt) med en styrka på 10.
+     * Hashar sparas med prefixet {bcrypt} via DelegatingPasswordEncoder. Äldre hashar utan prefix
+     * verifieras fortfarande som BCrypt, och uppgraderas vid nästa inloggning, liksom hashar
+     * med lägre styrka än den konfigurerade.
+     * @param strength BCrypt-styrkan (cost) för nya hashar.
+     * @param timeout Maximal tid ett anrop väntar på att hashningen ska bli klar.
+     * @param passwordHashingExecutor Trådpoolen som hashningen körs på.
+     * @param meterRegistry Registry för antalet avvisade hashningar om en sådan finns.
+     * @return En PasswordEncoder-instans (BCrypt) som hashar på en egen trådpool.
      */
     @Bean
-    public PasswordEncoder passwordEncoder () {
-        return new BCryptPasswordEncoder(10);
+    public PasswordEncoder passwordEncoder(
+            @Value("${kvitt.password.bcrypt-strength:10}") int strength,
+            @Value("${kvitt.password.hashing.timeout:5s}") Duration timeout,
+            ThreadPoolExecutor passwordHashingExecutor,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+
+        BCryptPasswordEncoder bCryptPasswordEncoder = new BCryptPasswordEncoder(strength);
+        DelegatingPasswordEncoder delegatingPasswordEncoder =
+                new DelegatingPasswordEncoder(BCRYPT_ID, Map.of(BCRYPT_ID, bCryptPasswordEncoder));
+        delegatingPasswordEncoder.setDefaultPasswordEncoderForMatches(bCryptPasswordEncoder);
+
+        return new BoundedPasswordEncoder(
+                delegatingPasswordEncoder,
+                passwordHashingExecutor,
+                timeout,
+                meterRegistry.getIfAvailable(SimpleMeterRegistry::new)
+        );
     }
-}
\ No newline at end of file
+}
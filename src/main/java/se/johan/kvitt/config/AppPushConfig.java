@@ -0,0 +1,35 @@
+package se.johan.kvitt.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Konfigurationsklass för push av kvitt-status till klienter via Server-Sent Events.
+ */
+@Configuration
+public class AppPushConfig {
+
+    /**
+     * Trådar som skriver till SSE-anslutningarna. En långsam klient blockerar bara sin egen
+     * virtuella tråd, aldrig anropet som ändrade ledgern.
+     * @return En executor som startar en virtuell tråd per uppgift.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService kvittPushExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("kvitt-push-", 0).factory());
+    }
+
+    /**
+     * Skickar heartbeats till öppna SSE-anslutningar, så att proxyer inte stänger dem
+     * och så att anslutningar till klienter som försvunnit upptäcks.
+     * @return En schemaläggare med en tråd.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService kvittPushHeartbeatScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("kvitt-push-heartbeat").daemon().factory());
+    }
+}
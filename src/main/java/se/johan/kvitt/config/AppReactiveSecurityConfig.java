@@ -0,0 +1,113 @@
+package se.johan.kvitt.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManagerAdapter;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.web.cors.reactive.CorsConfigurationSource;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.johan.kvitt.kvittUser.jwt.JwtAuthenticationWebFilter;
+import se.johan.kvitt.kvittUser.jwt.JwtUtils;
+import se.johan.kvitt.kvittUser.model.KvittUserDetailsService;
+
+/**
+ * Säkerhetskonfiguration för den reaktiva varianten av API:et (profilen reactive).
+ * Samma regler som {@link AppSecurityConfig}: CSRF av, stateless och JWT-autentisering på allt
+ * utom registrering, inloggning, health och mätvärdena på management-porten.
+ */
+@Configuration
+@EnableWebFluxSecurity
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class AppReactiveSecurityConfig {
+
+    /**
+     * AuthenticationManager för inloggning via KvittUserService, samma flöde som i servlet-varianten.
+     * Anropas från boundedElastic eftersom lösenordskontrollen är blockerande.
+     * @param kvittUserDetailsService Läser användare och uppdaterar lösenordshashar vid behov.
+     * @param passwordEncoder Den begränsade lösenordskodaren från AppPasswordConfig.
+     * @return En AuthenticationManager med en DaoAuthenticationProvider.
+     */
+    @Bean
+    public AuthenticationManager authenticationManager(KvittUserDetailsService kvittUserDetailsService, PasswordEncoder passwordEncoder) {
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider(kvittUserDetailsService);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsPasswordService(kvittUserDetailsService);
+        return new ProviderManager(provider);
+    }
+
+    /**
+     * Reaktiv adapter runt samma AuthenticationManager. Finns den inte skapar Spring Boot
+     * en användare i minnet med ett genererat lösenord.
+     * @param authenticationManager AuthenticationManager för inloggning.
+     * @return En ReactiveAuthenticationManager som kör autentiseringen på boundedElastic.
+     */
+    @Bean
+    public ReactiveAuthenticationManager reactiveAuthenticationManager(AuthenticationManager authenticationManager) {
+        ReactiveAuthenticationManagerAdapter adapter = new ReactiveAuthenticationManagerAdapter(authenticationManager);
+        adapter.setScheduler(Schedulers.boundedElastic());
+        return adapter;
+    }
+
+    /**
+     * Definierar SecurityWebFilterChain.
+     * Inget säkerhetskontext sparas mellan anrop; JWT-filtret sätter autentiseringen för varje anrop.
+     * @param http Objekt för att bygga säkerhetsinställningar.
+     * @param reactiveCorsConfigurationSource Källa för CORS-inställningar, se AppCorsConfig.
+     * @param jwtUtils Verifierar JWT-tokens.
+     * @param meterRegistry Registret för mätarna kvitt.jwt.validation.
+     * @param serverPort Porten för det publika API:et.
+     * @param managementPort Porten för actuator (management.server.port), eller -1 om den inte är satt.
+     * @return En färdigbyggd SecurityWebFilterChain.
+     */
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http, CorsConfigurationSource reactiveCorsConfigurationSource,
+                                                         JwtUtils jwtUtils, MeterRegistry meterRegistry,
+                                                         @Value("${server.port:8080}") int serverPort,
+                                                         @Value("${management.server.port:-1}") int managementPort) {
+        return http
+                .cors(cors -> cors.configurationSource(reactiveCorsConfigurationSource))
+                .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable)
+                .formLogin(ServerHttpSecurity.FormLoginSpec::disable)
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .authorizeExchange(exchange -> exchange
+                        .pathMatchers(
+                                "/api/v1/kvittUser/create",
+                                "/api/v1/kvittUser/login",
+                                "/api/v1/event/test",
+                                "/actuator/health"
+                        ).permitAll()
+                        // Mätvärdena är bara öppna på management-porten, som inte exponeras publikt
+                        .matchers(managementPortMatcher(serverPort, managementPort)).permitAll()
+                        .anyExchange().authenticated()
+                )
+                // Filtret skapas här och inte som bean, annars registrerar Spring Boot det även utanför säkerhetskedjan
+                .addFilterAt(new JwtAuthenticationWebFilter(jwtUtils, meterRegistry), SecurityWebFiltersOrder.AUTHENTICATION)
+                .build();
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private static ServerWebExchangeMatcher managementPortMatcher(int serverPort, int managementPort) {
+        return exchange -> {
+            boolean onManagementPort = managementPort > 0 && managementPort != serverPort
+                    && exchange.getRequest().getLocalAddress() != null
+                    && exchange.getRequest().getLocalAddress().getPort() == managementPort;
+            return onManagementPort ? ServerWebExchangeMatcher.MatchResult.match() : ServerWebExchangeMatcher.MatchResult.notMatch();
+        };
+    }
+}
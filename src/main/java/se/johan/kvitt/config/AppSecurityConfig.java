@@ -1,6 +1,9 @@
 package se.johan.kvitt.config;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -16,23 +19,32 @@ import se.johan.kvitt.kvittUser.jwt.JwtAuthenticationFilter;
 /**
  * Huvudkonfiguration för applikationens säkerhet med Spring Security.
  * Klassen definierar filterkedjan, auktoriseringsregler och hantering av JWT-autentisering.
+ * Gäller servlet-varianten av API:et, den reaktiva konfigureras i {@link AppReactiveSecurityConfig}.
  */
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @EnableWebSecurity
 public class AppSecurityConfig {
 
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
     private final CorsConfigurationSource corsConfigurationSource;
+    private final int serverPort;
+    private final int managementPort;
 
     /**
      * Konstruktor för AppSecurityConfig.
      * @param jwtAuthenticationFilter Filter för att validera JWT-tokens i inkommande anrop.
      * @param corsConfigurationSource Källa för CORS-inställningar som tillåter cross-origin anrop.
+     * @param serverPort Porten för det publika API:et.
+     * @param managementPort Porten för actuator (management.server.port), eller -1 om den inte är satt.
      */
     @Autowired
-    public AppSecurityConfig(JwtAuthenticationFilter jwtAuthenticationFilter, CorsConfigurationSource corsConfigurationSource) {
+    public AppSecurityConfig(JwtAuthenticationFilter jwtAuthenticationFilter, CorsConfigurationSource corsConfigurationSource,
+                             @Value("${server.port:8080}") int serverPort, @Value("${management.server.port:-1}") int managementPort) {
         this.jwtAuthenticationFilter = jwtAuthenticationFilter;
         this.corsConfigurationSource = corsConfigurationSource;
+        this.serverPort = serverPort;
+        this.managementPort = managementPort;
     }
 
     /**
@@ -64,8 +76,11 @@ public class AppSecurityConfig {
                         .requestMatchers(
                                 "/api/v1/kvittUser/create",
                                 "/api/v1/kvittUser/login",
-                                "/api/v1/event/test"
+                                "/api/v1/event/test",
+                                "/actuator/health"
                         ).permitAll()
+                        // Mätvärdena är bara öppna på management-porten, som inte exponeras publikt
+                        .requestMatchers(this::isManagementPortRequest).permitAll()
                         .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session
@@ -75,4 +90,10 @@ public class AppSecurityConfig {
 
         return httpSecurity.build();
     }
-}
\ No newline at end of file
+
+    // --- Privata Hjälpmetoder ---
+
+    private boolean isManagementPortRequest(HttpServletRequest request) {
+        return managementPort > 0 && managementPort != serverPort && request.getLocalPort() == managementPort;
+    }
+}
@@ -1,37 +1,74 @@
 package se.johan.kvitt.event.controller;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import se.johan.kvitt.event.dto.request.CreateEventDto;
 import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.dto.response.EventColumnsResponseDTO;
 import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.EventImportResponseDTO;
+import se.johan.kvitt.event.dto.response.EventPageResponseDTO;
+import se.johan.kvitt.event.dto.response.EventRollupResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.dto.response.ExpenseResponseDTO;
 import se.johan.kvitt.event.dto.response.KvittStatusResponseDTO;
 import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.push.KvittPushService;
+import se.johan.kvitt.event.service.EventImportService;
+import se.johan.kvitt.event.service.EventRollupService;
 import se.johan.kvitt.event.service.EventService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * REST-controller för hantering av ekonomiska händelser (events).
  * Tillhandahåller endpoints för att skapa, redigera, radera och hämta statistik kring händelser.
+ * Alla GET-endpoints svarar med en ETag och besvarar If-None-Match med 304 Not Modified.
+ * Varje endpoint tidsmäts och taggas med metodnamnet via {@link Timed}.
  */
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Timed(value = "kvitt.event.controller", histogram = true)
 @RequestMapping("api/v1/event")
 @RestController
 public class EventController {
 
     private final EventService eventService;
+    private final EventImportService eventImportService;
+    private final EventRollupService eventRollupService;
+    private final KvittPushService kvittPushService;
 
     /**
      * Konstruktor för EventController.
      * @param eventService Servicen som hanterar affärslogik för händelser.
+     * @param eventImportService Servicen som hanterar import av många händelser på en gång.
+     * @param eventRollupService Servicen som hanterar dag- och månadssummor.
+     * @param kvittPushService Servicen som skickar ändringar till prenumeranter.
      */
     @Autowired
-    public EventController(EventService eventService) {
+    public EventController(EventService eventService, EventImportService eventImportService, EventRollupService eventRollupService,
+                           KvittPushService kvittPushService) {
         this.eventService = eventService;
+        this.eventImportService = eventImportService;
+        this.eventRollupService = eventRollupService;
+        this.kvittPushService = kvittPushService;
     }
 
     /**
@@ -45,93 +82,274 @@ public class EventController {
     }
 
     /**
-     * Uppdaterar en befintlig ekonomisk händelse.
+     * Importerar många händelser på en gång från en JSON-array eller NDJSON.
+     * Raderna läses strömmande, valideras och skrivs i bulk. Settlement körs en gång per användare.
+     * @param inputStream Request body med en JSON-array eller ett JSON-objekt per rad.
+     * @return Antal importerade och avvisade rader med status 201 Created.
+     * @throws IOException Om request body inte kan läsas.
+     */
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<EventImportResponseDTO> importEvents(InputStream inputStream) throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(eventImportService.importJson(inputStream));
+    }
+
+    /**
+     * Importerar många händelser på en gång från CSV (t.ex. en bankexport).
+     * Första raden ska vara en rubrikrad med kolumnerna title, amount, username och valfritt expense och paid.
+     * @param inputStream Request body med CSV-data.
+     * @return Antal importerade och avvisade rader med status 201 Created.
+     * @throws IOException Om request body inte kan läsas.
+     */
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<EventImportResponseDTO> importEventsCsv(InputStream inputStream) throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(eventImportService.importCsv(inputStream));
+    }
+
+    /**
+     * Uppdaterar en befintlig ekonomisk händelse som tillhör den inloggade användaren.
      * @param dto Dataobjekt med uppdaterad information.
+     * @param authentication Den inloggade användaren, vars användarnamn även är shard-nyckeln.
      * @return Den uppdaterade händelsen med status 202 Accepted.
      */
     @PutMapping("/edit")
-    public ResponseEntity<Event> editEvent(@Valid @RequestBody EditEventDto dto) {
-        return ResponseEntity.status(HttpStatus.ACCEPTED).body(eventService.editEvent(dto));
+    public ResponseEntity<Event> editEvent(@Valid @RequestBody EditEventDto dto, Authentication authentication) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(eventService.editEvent(authentication.getName(), dto));
     }
 
     /**
-     * Raderar en händelse baserat på dess ID.
+     * Raderar en händelse som tillhör den inloggade användaren baserat på dess ID.
      * @param id Identifieraren för händelsen som ska tas bort.
+     * @param authentication Den inloggade användaren, vars användarnamn även är shard-nyckeln.
      * @return ResponseEntity med status 204 No Content.
      */
     @DeleteMapping("/delete")
-    public ResponseEntity<Void> deleteEvent(@RequestParam String id) {
-        eventService.deleteEvent(id);
+    public ResponseEntity<Void> deleteEvent(@RequestParam String id, Authentication authentication) {
+        eventService.deleteEvent(authentication.getName(), id);
         return ResponseEntity.noContent().build();
     }
 
     /**
      * Hämtar alla händelser kopplade till ett specifikt användarnamn.
      * @param username Användarnamnet vars händelser ska hämtas.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
      * @return En lista med händelser för användaren.
      */
     @GetMapping("/getAllEvents")
-    public ResponseEntity<List<EventGetAllEventsByUsernameResponseDTO>> getAllEventsByUsername(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getAllEventsByUsername(username));
+    public ResponseEntity<List<EventGetAllEventsByUsernameResponseDTO>> getAllEventsByUsername(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getAllEventsByUsername(username));
+    }
+
+    /**
+     * Hämtar alla händelser för en användare i kolumnformat: en array per fält istället för ett objekt
+     * per händelse, och dateTime som sekunder sedan epoch. Ger betydligt mindre svar för långa listor.
+     * @param username Användarnamnet vars händelser ska hämtas.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return Användarens händelser som kolumner.
+     */
+    @GetMapping(value = "/getAllEvents", params = "format=columns")
+    public ResponseEntity<EventColumnsResponseDTO> getAllEventsAsColumns(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getAllEventsAsColumns(username));
+    }
+
+    /**
+     * Hämtar en användares händelser sida för sida i datumordning (keyset-paginering).
+     * @param username Användarnamnet vars händelser ska hämtas.
+     * @param cursor Cursor från föregående sida, utelämnas för första sidan.
+     * @param limit Antal händelser per sida (standard 100, max 500).
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En sida med händelser samt cursor till nästa sida.
+     */
+    @GetMapping("/getEventsPage")
+    public ResponseEntity<EventPageResponseDTO> getEventsPage(@RequestParam String username,
+                                                              @RequestParam(required = false) String cursor,
+                                                              @RequestParam(required = false) Integer limit,
+                                                              ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getEventsPage(username, cursor, limit));
+    }
+
+    /**
+     * Strömmar alla händelser för en användare som NDJSON (en händelse per rad).
+     * Händelserna skrivs direkt från databas-cursorn utan att hela listan byggs upp i minnet.
+     * @param username Användarnamnet vars händelser ska hämtas.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En strömmande respons med content-type application/x-ndjson.
+     */
+    @GetMapping(value = "/getAllEvents", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllEventsByUsername(@RequestParam String username, ServletWebRequest webRequest) {
+        if (isNotModified(username, webRequest)) {
+            return null;
+        }
+
+        StreamingResponseBody body = outputStream -> eventService.writeAllEventsAsNdjson(username, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     /**
      * Hämtar den totala summan av inkomster för en användare.
      * @param username Användarnamnet för beräkningen.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
      * @return Total inkomst som BigDecimal.
      */
     @GetMapping("/getTotalIncome")
-    public ResponseEntity<BigDecimal> getTotalIncome(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getTotalIncome(username));
+    public ResponseEntity<BigDecimal> getTotalIncome(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getTotalIncome(username));
     }
 
     /**
      * Hämtar den totala summan av utgifter för en användare.
      * @param username Användarnamnet för beräkningen.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
      * @return Total utgift som BigDecimal.
      */
     @GetMapping("/getTotalExpense")
-    public ResponseEntity<BigDecimal> getTotalExpense(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getTotalExpense(username));
+    public ResponseEntity<BigDecimal> getTotalExpense(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getTotalExpense(username));
     }
 
     /**
      * Hämtar det ekonomiska nettot (balansen) för en användare.
      * @param username Användarnamnet för beräkningen.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
      * @return Ekonomiskt netto som BigDecimal.
      */
     @GetMapping("/getFinancials")
-    public ResponseEntity<BigDecimal> getFinancials(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getFinancials(username));
+    public ResponseEntity<BigDecimal> getFinancials(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getFinancials(username));
+    }
+
+    /**
+     * Hämtar total inkomst, total utgift och ekonomiskt netto i ett och samma anrop.
+     * Summeringen görs i databasen, så endast tre värden skickas över nätverket.
+     * @param username Användarnamnet för beräkningen.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return Ett DTO-objekt med inkomst, utgift och netto.
+     */
+    @GetMapping("/summary")
+    public ResponseEntity<EventSummaryResponseDTO> getSummary(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getSummary(username));
+    }
+
+    /**
+     * Hämtar inkomster, utgifter och netto per månad för de senaste månaderna, inklusive innevarande.
+     * Svaret läses från förberäknade månadssummor och månader utan händelser returneras med nollor.
+     * @param username Användarnamnet för beräkningen.
+     * @param months Antal månader bakåt (standard 12, max 120).
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En lista med en post per månad i datumordning.
+     */
+    @GetMapping("/getMonthlyTotals")
+    public ResponseEntity<List<EventRollupResponseDTO>> getMonthlyTotals(@RequestParam String username,
+                                                                         @RequestParam(defaultValue = "12") int months,
+                                                                         ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventRollupService.getMonthlyTotals(username, months));
+    }
+
+    /**
+     * Hämtar inkomster, utgifter och netto per dag mellan två datum.
+     * Svaret läses från förberäknade dagssummor och dagar utan händelser returneras med nollor.
+     * @param username Användarnamnet för beräkningen.
+     * @param from Första dagen (ISO-datum, t.ex. 2025-01-01).
+     * @param to Sista dagen, högst 366 dagar efter from.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En lista med en post per dag i datumordning.
+     */
+    @GetMapping("/getDailyTotals")
+    public ResponseEntity<List<EventRollupResponseDTO>> getDailyTotals(@RequestParam String username,
+                                                                       @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                       @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                       ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventRollupService.getDailyTotals(username, from, to));
     }
 
     /**
      * Hämtar en sammanfattande status (KvittStatus) för en användare.
      * @param username Användarnamnet för statuskontrollen.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
      * @return Ett DTO-objekt med användarens ekonomiska status.
      */
     @GetMapping("/getKvittStatus")
-    public ResponseEntity<KvittStatusResponseDTO> getKvittStatus(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getKvittStatus(username));
+    public ResponseEntity<KvittStatusResponseDTO> getKvittStatus(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getKvittStatus(username));
     }
 
     /**
      * Hämtar alla händelser som är markerade som betalda för en användare.
      * @param username Användarnamnet vars betalda händelser ska hämtas.
-     * @return En lista med betalda händelser.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En lista med betalda utgifter, utan fält som är givna av listan (username, expense, paid).
      */
     @GetMapping("/getPaidEvents")
-    public ResponseEntity<List<Event>> getPaidEvents(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getPaidEvents(username));
+    public ResponseEntity<List<ExpenseResponseDTO>> getPaidEvents(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getPaidEvents(username));
+    }
+
+    /**
+     * Hämtar alla betalda utgifter för en användare i kolumnformat (en array per fält).
+     * @param username Användarnamnet vars betalda händelser ska hämtas.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return Betalda utgifter som kolumner.
+     */
+    @GetMapping(value = "/getPaidEvents", params = "format=columns")
+    public ResponseEntity<EventColumnsResponseDTO> getPaidEventsAsColumns(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getExpensesAsColumns(username, true));
     }
 
     /**
      * Hämtar alla händelser som ännu inte är markerade som betalda för en användare.
      * @param username Användarnamnet vars obetalda händelser ska hämtas.
-     * @return En lista med obetalda händelser.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return En lista med obetalda utgifter, utan fält som är givna av listan (username, expense, paid).
      */
     @GetMapping("/getUnPaidEvents")
-    public ResponseEntity<List<Event>> getUnPaidEvents(@RequestParam String username) {
-        return ResponseEntity.ok(eventService.getUnPaidEvents(username));
+    public ResponseEntity<List<ExpenseResponseDTO>> getUnPaidEvents(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getUnPaidEvents(username));
+    }
+
+    /**
+     * Hämtar alla obetalda utgifter för en användare i kolumnformat (en array per fält).
+     * @param username Användarnamnet vars obetalda händelser ska hämtas.
+     * @param webRequest Används för att jämföra If-None-Match med användarens ETag.
+     * @return Obetalda utgifter som kolumner.
+     */
+    @GetMapping(value = "/getUnPaidEvents", params = "format=columns")
+    public ResponseEntity<EventColumnsResponseDTO> getUnPaidEventsAsColumns(@RequestParam String username, ServletWebRequest webRequest) {
+        return conditional(username, webRequest, () -> eventService.getExpensesAsColumns(username, false));
+    }
+
+    /**
+     * Prenumererar på ändringar för den inloggade användaren via Server-Sent Events, istället för att polla.
+     * Första händelsen är nuvarande läge; därefter skickas nya totaler, kvitt-status och vilka utgifter
+     * som blev betalda eller obetalda varje gång användarens ledger ändras.
+     * @param authentication Den inloggade användaren, från JWT-filtret.
+     * @return En öppen SSE-ström med händelser av typen kvitt.
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(Authentication authentication) {
+        return kvittPushService.openSseEmitter(authentication.getName());
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * Svarar 304 Not Modified om klientens ETag fortfarande gäller, annars 200 med svaret från body.
+     * Svaret räknas bara ut när användarens data har ändrats sedan klientens senaste anrop.
+     */
+    private <T> ResponseEntity<T> conditional(String username, ServletWebRequest webRequest, Supplier<T> body) {
+        if (isNotModified(username, webRequest)) {
+            return null;
+        }
+        return ResponseEntity.ok(body.get());
+    }
+
+    /**
+     * Jämför If-None-Match med användarens ETag. checkNotModified sätter ETag-headern och,
+     * vid träff, status 304; returnerar controllern då null skickas svaret utan body.
+     */
+    private boolean isNotModified(String username, ServletWebRequest webRequest) {
+        // no-cache: klienten får spara svaret men måste fråga om det fortfarande gäller
+        webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        return webRequest.checkNotModified(eventService.getETag(username));
     }
-}
\ No newline at end of file
+}
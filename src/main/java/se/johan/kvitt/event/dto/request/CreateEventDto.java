@@ -1,5 +1,6 @@
 package se.johan.kvitt.event.dto.request;
 
+import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
@@ -12,6 +13,7 @@ public record CreateEventDto(
 
         @NotNull(message = "Amount is required")
         @Positive(message = "Amount must be positive")
+        @Digits(integer = 15, fraction = 2, message = "Amount can have at most two decimals")
         BigDecimal amount,
 
         boolean expense,
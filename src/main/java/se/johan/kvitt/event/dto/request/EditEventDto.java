@@ -1,14 +1,24 @@
 package se.johan.kvitt.event.dto.request;
 
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 public record EditEventDto(
         String id,
         String title,
+
+        @NotNull(message = "Amount is required")
+        @Positive(message = "Amount must be positive")
+        @Digits(integer = 15, fraction = 2, message = "Amount can have at most two decimals")
         BigDecimal amount,
+
         boolean expense,
+
+        @NotNull(message = "Date is required")
         LocalDateTime dateTime
 
 ) {
-}
\ No newline at end of file
+}
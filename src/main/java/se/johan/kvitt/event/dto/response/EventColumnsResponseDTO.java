@@ -0,0 +1,21 @@
+package se.johan.kvitt.event.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.math.BigDecimal;
+
+/**
+ * En lista med events som en kolumn per fält istället för ett objekt per event,
+ * så att fältnamnen bara skickas en gång. Index i i varje kolumn hör till samma event.
+ * dateTime anges i sekunder sedan 1970-01-01T00:00 (utan tidszon, som dateTime lagras).
+ * expense och paid utelämnas för listor där de redan är givna.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record EventColumnsResponseDTO(
+        String[] id,
+        String[] title,
+        BigDecimal[] amount,
+        long[] dateTime,
+        boolean[] expense,
+        boolean[] paid
+) {}
@@ -0,0 +1,6 @@
+package se.johan.kvitt.event.dto.response;
+
+public record EventImportErrorDTO(
+        long row,
+        String message
+) {}
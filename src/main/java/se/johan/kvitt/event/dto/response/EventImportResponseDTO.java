@@ -0,0 +1,9 @@
+package se.johan.kvitt.event.dto.response;
+
+import java.util.List;
+
+public record EventImportResponseDTO(
+        long imported,
+        long rejected,
+        List<EventImportErrorDTO> errors // Begränsad till de första felen
+) {}
@@ -0,0 +1,8 @@
+package se.johan.kvitt.event.dto.response;
+
+import java.util.List;
+
+public record EventPageResponseDTO(
+        List<EventGetAllEventsByUsernameResponseDTO> events,
+        String nextCursor // null när det inte finns fler sidor
+) {}
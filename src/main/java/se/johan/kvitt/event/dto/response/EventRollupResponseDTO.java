@@ -0,0 +1,11 @@
+package se.johan.kvitt.event.dto.response;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+public record EventRollupResponseDTO(
+        LocalDate period,
+        BigDecimal totalIncome,
+        BigDecimal totalExpense,
+        BigDecimal financials
+) {}
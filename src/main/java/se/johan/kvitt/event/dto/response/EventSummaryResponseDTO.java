@@ -0,0 +1,9 @@
+package se.johan.kvitt.event.dto.response;
+
+import java.math.BigDecimal;
+
+public record EventSummaryResponseDTO(
+        BigDecimal totalIncome,
+        BigDecimal totalExpense,
+        BigDecimal financials
+) {}
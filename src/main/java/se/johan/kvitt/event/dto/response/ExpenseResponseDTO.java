@@ -0,0 +1,12 @@
+package se.johan.kvitt.event.dto.response;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Utgifter i listor som redan är filtrerade på betalstatus, så username, expense och paid utelämnas
+public record ExpenseResponseDTO(
+        String id,
+        String title,
+        BigDecimal amount,
+        LocalDateTime dateTime
+) {}
@@ -0,0 +1,30 @@
+package se.johan.kvitt.event.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Skickas till prenumeranter när en användares ledger har ändrats. Innehåller de nya totalerna
+ * och kvitt-statusen, samt vilka utgifter som precis blev betalda eller obetalda.
+ * missed är true om äldre ändringar har kastats för att klienten inte hann läsa dem; klienten
+ * bör då hämta listorna med betalda och obetalda utgifter på nytt.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public record KvittDeltaResponseDTO(
+        long revision,
+        BigDecimal totalIncome,
+        BigDecimal totalExpense,
+        BigDecimal financials,
+        List<String> paidEventIds,
+        List<String> unpaidEventIds,
+        KvittStatusResponseDTO kvittStatus,
+        boolean missed
+) {
+
+    public KvittDeltaResponseDTO asMissed() {
+        return new KvittDeltaResponseDTO(revision, totalIncome, totalExpense, financials,
+                paidEventIds, unpaidEventIds, kvittStatus, true);
+    }
+}
@@ -0,0 +1,29 @@
+package se.johan.kvitt.event.job;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.event.service.EventLedgerService;
+
+/**
+ * Bygger om samtliga användares ledger från events-kollektionen vid uppstart.
+ * Aktiveras med {@code kvitt.ledger.rebuild-on-startup=true}, t.ex. efter en manuell ändring i databasen.
+ */
+@Component
+@ConditionalOnProperty(name = "kvitt.ledger.rebuild-on-startup", havingValue = "true")
+public class EventLedgerRebuildJob implements ApplicationRunner {
+
+    private final EventLedgerService eventLedgerService;
+
+    @Autowired
+    public EventLedgerRebuildJob(EventLedgerService eventLedgerService) {
+        this.eventLedgerService = eventLedgerService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        eventLedgerService.rebuildAll();
+    }
+}
@@ -0,0 +1,30 @@
+package se.johan.kvitt.event.job;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.event.service.EventRollupService;
+
+/**
+ * Bygger om samtliga användares dag- och månadssummor från events-kollektionen vid uppstart.
+ * Aktiveras med {@code kvitt.rollup.rebuild-on-startup=true}, t.ex. första gången efter att rollups
+ * införts så att befintlig historik kommer med.
+ */
+@Component
+@ConditionalOnProperty(name = "kvitt.rollup.rebuild-on-startup", havingValue = "true")
+public class EventRollupRebuildJob implements ApplicationRunner {
+
+    private final EventRollupService eventRollupService;
+
+    @Autowired
+    public EventRollupRebuildJob(EventRollupService eventRollupService) {
+        this.eventRollupService = eventRollupService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        eventRollupService.rebuildAll();
+    }
+}
@@ -0,0 +1,84 @@
+package se.johan.kvitt.event.migration;
+
+import com.mongodb.client.result.UpdateResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.event.model.Event;
+
+import static org.springframework.data.mongodb.core.query.Criteria.expr;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Konverterar {@code Event.amount} som sparats som sträng (Spring Datas standard för BigDecimal)
+ * till Decimal128. Konverteringen görs i databasen med en pipeline-uppdatering, så inga events
+ * behöver läsas in i applikationen. Events som redan är konverterade matchas inte igen.
+ * Belopp med fler än två decimaler avrundas därefter till hela ören med $round, som avrundar
+ * till jämnt (HALF_EVEN) precis som MinorUnits. Körs en gång (se MigrationMarkerStore).
+ */
+@Component
+public class EventAmountMigration implements SmartInitializingSingleton {
+
+    private static final String MIGRATION = "event-amount-decimal128";
+    private static final int SCALE = 2;
+
+    private final MongoTemplate mongoTemplate;
+    private final MigrationMarkerStore migrationMarkerStore;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventAmountMigration(MongoTemplate mongoTemplate, MigrationMarkerStore migrationMarkerStore) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrationMarkerStore = migrationMarkerStore;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (migrationMarkerStore.isApplied(MIGRATION)) {
+            return;
+        }
+
+        long modified = convertStrings() + roundToMinorUnits();
+        migrationMarkerStore.markApplied(MIGRATION, modified);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private long convertStrings() {
+        UpdateResult result = mongoTemplate.updateMulti(
+                query(where("amount").type(JsonSchemaObject.Type.stringType())),
+                AggregationUpdate.update()
+                        .set("amount").toValue(ConvertOperators.valueOf("amount").convertToDecimal()),
+                Event.class
+        );
+
+        if (result.getModifiedCount() > 0) {
+            logger.info("Converted amount to Decimal128 on {} events", result.getModifiedCount());
+        }
+        return result.getModifiedCount();
+    }
+
+    private long roundToMinorUnits() {
+        UpdateResult result = mongoTemplate.updateMulti(
+                query(expr(ComparisonOperators.valueOf("amount")
+                        .notEqualTo(ArithmeticOperators.valueOf("amount").roundToPlace(SCALE)))),
+                AggregationUpdate.update()
+                        .set("amount").toValue(ArithmeticOperators.valueOf("amount").roundToPlace(SCALE)),
+                Event.class
+        );
+
+        if (result.getModifiedCount() > 0) {
+            logger.info("Rounded amount to {} decimals on {} events", SCALE, result.getModifiedCount());
+        }
+        return result.getModifiedCount();
+    }
+}
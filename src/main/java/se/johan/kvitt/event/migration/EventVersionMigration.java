@@ -0,0 +1,53 @@
+package se.johan.kvitt.event.migration;
+
+import com.mongodb.client.result.UpdateResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.event.model.Event;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Ger events som skapades innan {@code Event.version} fanns en startversion.
+ * Utan versionsfält tolkar Spring Data ett sparat event som nytt och försöker göra insert.
+ * Körs en gång (se MigrationMarkerStore).
+ */
+@Component
+public class EventVersionMigration implements SmartInitializingSingleton {
+
+    private static final String MIGRATION = "event-version";
+
+    private final MongoTemplate mongoTemplate;
+    private final MigrationMarkerStore migrationMarkerStore;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventVersionMigration(MongoTemplate mongoTemplate, MigrationMarkerStore migrationMarkerStore) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrationMarkerStore = migrationMarkerStore;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (migrationMarkerStore.isApplied(MIGRATION)) {
+            return;
+        }
+
+        UpdateResult result = mongoTemplate.updateMulti(
+                query(where("version").exists(false)),
+                new Update().set("version", 0L),
+                Event.class
+        );
+
+        if (result.getModifiedCount() > 0) {
+            logger.info("Initialized version on {} events", result.getModifiedCount());
+        }
+        migrationMarkerStore.markApplied(MIGRATION, result.getModifiedCount());
+    }
+}
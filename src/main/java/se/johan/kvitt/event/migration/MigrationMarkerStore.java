@@ -0,0 +1,49 @@
+package se.johan.kvitt.event.migration;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Markerar vilka migreringar som redan har körts, en post per migrering i migrations.
+ * Migreringarna söker igenom hela events utan användarnamn (scatter-gather i ett shardat kluster),
+ * så de körs bara tills de lyckats en gång. Startar två instanser samtidigt kan båda köra
+ * migreringen, vilket går bra eftersom migreringarna är idempotenta.
+ */
+@Component
+public class MigrationMarkerStore {
+
+    private static final String COLLECTION = "migrations";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public MigrationMarkerStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public boolean isApplied(String migration) {
+        return markers().countDocuments(Filters.eq("_id", migration)) > 0;
+    }
+
+    public void markApplied(String migration, long modifiedCount) {
+        BsonDocument marker = new BsonDocument("_id", new BsonString(migration))
+                .append("appliedAt", new BsonDateTime(System.currentTimeMillis()))
+                .append("modifiedCount", new BsonInt64(modifiedCount));
+
+        markers().replaceOne(Filters.eq("_id", migration), marker, new ReplaceOptions().upsert(true));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private MongoCollection<BsonDocument> markers() {
+        return mongoTemplate.getDb().getCollection(COLLECTION, BsonDocument.class);
+    }
+}
@@ -1,22 +1,42 @@
 package se.johan.kvitt.event.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Document(collection = "events")
+// Delas upp per användare med hashad username (se AppMongoShardingConfig). Username ändras aldrig,
+// så Spring Data behöver inte läsa upp dokumentet för att hitta shard-nyckeln vid save.
+@Sharded(shardKey = { "username" }, shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
+@CompoundIndexes({
+        // Obetalda/betalda utgifter i datumordning (settlement och kvitt-status)
+        @CompoundIndex(name = "username_expense_paid_dateTime", def = "{ 'username': 1, 'expense': 1, 'paid': 1, 'dateTime': 1 }"),
+        // En användares alla events i datumordning, _id avgör ordningen vid samma tidpunkt (keyset-paginering)
+        @CompoundIndex(name = "username_dateTime_id", def = "{ 'username': 1, 'dateTime': 1, '_id': 1 }")
+})
 public class Event {
 
     @Id
     private String id;
     private String title;
+    // Lagras som Decimal128 (inte sträng) så att MongoDB kan summera beloppen direkt
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal amount;
     private boolean expense;
     private LocalDateTime dateTime;
     private boolean paid;
     private String username;
+    @Version
+    private Long version;
 
     public Event() {
     }
@@ -87,4 +107,12 @@ public class Event {
         this.username = username;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package se.johan.kvitt.event.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Resultatrad från summeringen i {@code EventRepository#sumAmountsByExpense}.
+ */
+public record EventAmountTotal(
+        boolean expense,
+        BigDecimal total
+) {}
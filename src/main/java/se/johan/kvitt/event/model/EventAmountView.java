@@ -0,0 +1,20 @@
+package se.johan.kvitt.event.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * De fält av ett event som ledger, rollups och summeringar behöver. Läses utan title och username,
+ * se {@code EventProjectionRepository}.
+ */
+public record EventAmountView(
+        BigDecimal amount,
+        boolean expense,
+        boolean paid,
+        LocalDateTime dateTime
+) {
+
+    public static EventAmountView of(Event event) {
+        return new EventAmountView(event.getAmount(), event.isExpense(), event.isPaid(), event.getDateTime());
+    }
+}
@@ -0,0 +1,112 @@
+package se.johan.kvitt.event.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Sammanfattning av en användares alla events.
+ * Uppdateras inkrementellt vid varje ändring så att settlement slipper läsa hela historiken.
+ */
+@Document(collection = "ledgers")
+public class EventLedger {
+
+    @Id
+    private String username;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal totalIncome;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal totalExpense;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal paidExpenseAmount;
+    private long expenseCount;
+    private long unpaidCount;
+    private LocalDateTime lastKvittDate;
+    // Ökar vid varje ändring av ledgern och används som ETag för användarens läs-endpoints
+    private long revision;
+
+    public EventLedger() {
+    }
+
+    public EventLedger(String username, BigDecimal totalIncome, BigDecimal totalExpense, BigDecimal paidExpenseAmount, long expenseCount, long unpaidCount, LocalDateTime lastKvittDate) {
+        this.username = username;
+        this.totalIncome = totalIncome;
+        this.totalExpense = totalExpense;
+        this.paidExpenseAmount = paidExpenseAmount;
+        this.expenseCount = expenseCount;
+        this.unpaidCount = unpaidCount;
+        this.lastKvittDate = lastKvittDate;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public BigDecimal getTotalIncome() {
+        return totalIncome;
+    }
+
+    public void setTotalIncome(BigDecimal totalIncome) {
+        this.totalIncome = totalIncome;
+    }
+
+    public BigDecimal getTotalExpense() {
+        return totalExpense;
+    }
+
+    public void setTotalExpense(BigDecimal totalExpense) {
+        this.totalExpense = totalExpense;
+    }
+
+    public BigDecimal getPaidExpenseAmount() {
+        return paidExpenseAmount;
+    }
+
+    public void setPaidExpenseAmount(BigDecimal paidExpenseAmount) {
+        this.paidExpenseAmount = paidExpenseAmount;
+    }
+
+    public long getExpenseCount() {
+        return expenseCount;
+    }
+
+    public void setExpenseCount(long expenseCount) {
+        this.expenseCount = expenseCount;
+    }
+
+    public long getUnpaidCount() {
+        return unpaidCount;
+    }
+
+    public void setUnpaidCount(long unpaidCount) {
+        this.unpaidCount = unpaidCount;
+    }
+
+    public LocalDateTime getLastKvittDate() {
+        return lastKvittDate;
+    }
+
+    public void setLastKvittDate(LocalDateTime lastKvittDate) {
+        this.lastKvittDate = lastKvittDate;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+
+    public BigDecimal getAvailableFunds() {
+        return totalIncome.subtract(paidExpenseAmount);
+    }
+}
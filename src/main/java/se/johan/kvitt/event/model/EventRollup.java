@@ -0,0 +1,98 @@
+package se.johan.kvitt.event.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Summerade inkomster och utgifter för en användare under en dag eller en månad.
+ * Uppdateras inkrementellt vid varje ändring så att rapporter över tid slipper läsa alla events.
+ */
+@Document(collection = "rollups")
+@CompoundIndex(name = "username_granularity_period", def = "{ 'username': 1, 'granularity': 1, 'period': 1 }", unique = true)
+public class EventRollup {
+
+    @Id
+    private String id;
+    private String username;
+    private RollupGranularity granularity;
+    private LocalDate period;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal totalIncome;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal totalExpense;
+    private long incomeCount;
+    private long expenseCount;
+
+    public EventRollup() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public RollupGranularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(RollupGranularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public LocalDate getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(LocalDate period) {
+        this.period = period;
+    }
+
+    public BigDecimal getTotalIncome() {
+        return totalIncome;
+    }
+
+    public void setTotalIncome(BigDecimal totalIncome) {
+        this.totalIncome = totalIncome;
+    }
+
+    public BigDecimal getTotalExpense() {
+        return totalExpense;
+    }
+
+    public void setTotalExpense(BigDecimal totalExpense) {
+        this.totalExpense = totalExpense;
+    }
+
+    public long getIncomeCount() {
+        return incomeCount;
+    }
+
+    public void setIncomeCount(long incomeCount) {
+        this.incomeCount = incomeCount;
+    }
+
+    public long getExpenseCount() {
+        return expenseCount;
+    }
+
+    public void setExpenseCount(long expenseCount) {
+        this.expenseCount = expenseCount;
+    }
+}
@@ -0,0 +1,49 @@
+package se.johan.kvitt.event.model;
+
+import java.time.LocalDate;
+
+/**
+ * Tidsindelningen för en rollup. Varje period identifieras av sitt första datum.
+ */
+public enum RollupGranularity {
+
+    /** En period per dag. */
+    DAY {
+        @Override
+        public LocalDate periodOf(LocalDate date) {
+            return date;
+        }
+
+        @Override
+        public LocalDate next(LocalDate period) {
+            return period.plusDays(1);
+        }
+    },
+
+    /** En period per kalendermånad, identifierad av månadens första dag. */
+    MONTH {
+        @Override
+        public LocalDate periodOf(LocalDate date) {
+            return date.withDayOfMonth(1);
+        }
+
+        @Override
+        public LocalDate next(LocalDate period) {
+            return period.plusMonths(1);
+        }
+    };
+
+    /**
+     * Hämtar perioden som ett datum tillhör.
+     * @param date Datumet.
+     * @return Periodens första datum.
+     */
+    public abstract LocalDate periodOf(LocalDate date);
+
+    /**
+     * Hämtar perioden efter den givna.
+     * @param period En periods första datum.
+     * @return Nästa periods första datum.
+     */
+    public abstract LocalDate next(LocalDate period);
+}
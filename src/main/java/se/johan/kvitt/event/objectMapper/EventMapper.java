@@ -2,10 +2,18 @@ package se.johan.kvitt.event.objectMapper;
 
 import org.springframework.stereotype.Component;
 import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.response.EventColumnsResponseDTO;
 import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.ExpenseResponseDTO;
+import se.johan.kvitt.event.dto.response.KvittStatusResponseDTO;
 import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
 
 @Component
 public class EventMapper {
@@ -32,4 +40,44 @@ public class EventMapper {
                 event.isPaid()
         );
     }
-}
\ No newline at end of file
+
+    public ExpenseResponseDTO toExpenseDTO(Event event) {
+        return new ExpenseResponseDTO(
+                event.getId(),
+                event.getTitle(),
+                event.getAmount(),
+                event.getDateTime()
+        );
+    }
+
+    public KvittStatusResponseDTO toKvittStatusDTO(EventLedger ledger) {
+        return new KvittStatusResponseDTO(
+                ledger.getUnpaidCount(),
+                ledger.getLastKvittDate() != null ? ledger.getLastKvittDate().toLocalDate() : LocalDate.now()
+        );
+    }
+
+    public EventColumnsResponseDTO toColumnsDTO(List<Event> events, boolean includeStatus) {
+        int size = events.size();
+        String[] ids = new String[size];
+        String[] titles = new String[size];
+        BigDecimal[] amounts = new BigDecimal[size];
+        long[] dateTimes = new long[size];
+        boolean[] expenses = includeStatus ? new boolean[size] : null;
+        boolean[] paid = includeStatus ? new boolean[size] : null;
+
+        for (int i = 0; i < size; i++) {
+            Event event = events.get(i);
+            ids[i] = event.getId();
+            titles[i] = event.getTitle();
+            amounts[i] = event.getAmount();
+            dateTimes[i] = event.getDateTime().toEpochSecond(ZoneOffset.UTC);
+            if (includeStatus) {
+                expenses[i] = event.isExpense();
+                paid[i] = event.isPaid();
+            }
+        }
+
+        return new EventColumnsResponseDTO(ids, titles, amounts, dateTimes, expenses, paid);
+    }
+}
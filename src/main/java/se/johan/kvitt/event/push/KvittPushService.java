@@ -0,0 +1,213 @@
+package se.johan.kvitt.event.push;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.johan.kvitt.event.dto.response.KvittDeltaResponseDTO;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.objectMapper.EventMapper;
+import se.johan.kvitt.event.service.EventLedgerService;
+import se.johan.kvitt.event.service.SettlementChanges;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Skickar ändringar i en användares ledger till användarens öppna prenumerationer (Server-Sent Events),
+ * så att klienter inte behöver polla kvitt-status, summor och obetalda utgifter.
+ * Varje anslutning har en begränsad buffert; en klient som inte hinner läsa tappar de äldsta ändringarna.
+ * Prenumerationerna finns i minnet, så en klient får bara ändringar som görs i samma instans.
+ */
+@Service
+public class KvittPushService {
+
+    private final EventLedgerService eventLedgerService;
+    private final EventMapper eventMapper;
+    private final ExecutorService kvittPushExecutor;
+    private final int bufferSize;
+    private final int maxConnectionsPerUser;
+    private final Duration timeout;
+    private final Duration heartbeatInterval;
+    private final Map<String, Set<Consumer<KvittDeltaResponseDTO>>> listeners = new ConcurrentHashMap<>();
+    private final Set<KvittSseSubscription> sseSubscriptions = ConcurrentHashMap.newKeySet();
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public KvittPushService(EventLedgerService eventLedgerService, EventMapper eventMapper,
+                            @Qualifier("kvittPushExecutor") ExecutorService kvittPushExecutor,
+                            @Qualifier("kvittPushHeartbeatScheduler") ScheduledExecutorService kvittPushHeartbeatScheduler,
+                            MeterRegistry meterRegistry,
+                            @Value("${kvitt.push.buffer-size:16}") int bufferSize,
+                            @Value("${kvitt.push.max-connections-per-user:5}") int maxConnectionsPerUser,
+                            @Value("${kvitt.push.timeout:30m}") Duration timeout,
+                            @Value("${kvitt.push.heartbeat-interval:25s}") Duration heartbeatInterval) {
+        this.eventLedgerService = eventLedgerService;
+        this.eventMapper = eventMapper;
+        this.kvittPushExecutor = kvittPushExecutor;
+        this.bufferSize = bufferSize;
+        this.maxConnectionsPerUser = maxConnectionsPerUser;
+        this.timeout = timeout;
+        this.heartbeatInterval = heartbeatInterval;
+        this.sentCounter = deltaCounter(meterRegistry, "sent");
+        this.droppedCounter = deltaCounter(meterRegistry, "dropped");
+
+        Gauge.builder("kvitt.push.connections", listeners, map -> map.values().stream().mapToInt(Set::size).sum())
+                .description("Open kvitt status subscriptions")
+                .register(meterRegistry);
+
+        kvittPushHeartbeatScheduler.scheduleAtFixedRate(() -> sseSubscriptions.forEach(KvittSseSubscription::heartbeat),
+                heartbeatInterval.toMillis(), heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Skickar användarens nya totaler och kvitt-status till alla öppna prenumerationer.
+     * Anropas under användarens skrivlås, så ändringarna kommer i samma ordning som skrivningarna.
+     * Utan prenumeranter görs ingenting, inte ens en läsning av ledgern.
+     * @param username Användaren vars ledger har ändrats.
+     * @param changes Utgifterna som bytte betalstatus i samma skrivning.
+     */
+    public void publish(String username, SettlementChanges changes) {
+        Set<Consumer<KvittDeltaResponseDTO>> userListeners = listeners.get(username);
+        if (userListeners == null || userListeners.isEmpty()) {
+            return;
+        }
+
+        try {
+            KvittDeltaResponseDTO delta = toDelta(eventLedgerService.getLedger(username), changes);
+            // Lyssnarna buffrar bara ändringen, skrivningen till klienten sker på en annan tråd
+            userListeners.forEach(listener -> listener.accept(delta));
+        } catch (RuntimeException e) {
+            // En push får aldrig få själva skrivningen att misslyckas
+            logger.warn("Could not publish kvitt status for user {}: {}", username, e.getMessage());
+        }
+    }
+
+    /**
+     * Öppnar en SSE-prenumeration (Spring MVC). Första händelsen är användarens nuvarande läge.
+     * @param username Den inloggade användaren.
+     * @return En SseEmitter som hålls öppen tills klienten kopplar ner eller kvitt.push.timeout passerat.
+     */
+    public SseEmitter openSseEmitter(String username) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        KvittSseSubscription subscription = new KvittSseSubscription(emitter, bufferSize, kvittPushExecutor, sentCounter, droppedCounter);
+        Runnable removeListener = addListener(username, subscription);
+        sseSubscriptions.add(subscription);
+
+        Runnable cleanup = () -> {
+            subscription.close();
+            sseSubscriptions.remove(subscription);
+            removeListener.run();
+        };
+        emitter.onCompletion(cleanup);
+        emitter.onError(e -> cleanup.run());
+        // Klienten (EventSource) återansluter själv när anslutningen stängs
+        emitter.onTimeout(() -> {
+            cleanup.run();
+            emitter.complete();
+        });
+
+        // Lyssnaren registreras före läsningen så att ingen ändring däremellan går förlorad,
+        // men måste då tas bort om läsningen misslyckas
+        try {
+            subscription.accept(toDelta(eventLedgerService.getLedger(username), SettlementChanges.NONE));
+        } catch (RuntimeException e) {
+            cleanup.run();
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * Öppnar en SSE-prenumeration (WebFlux). Första händelsen är användarens nuvarande läge.
+     * Bufferten begränsas med onBackpressureBuffer, som kastar den äldsta ändringen när den är full.
+     * @param username Den inloggade användaren.
+     * @return En oändlig ström av ändringar, med heartbeats som SSE-kommentarer.
+     */
+    public Flux<ServerSentEvent<KvittDeltaResponseDTO>> openEventStream(String username) {
+        AtomicBoolean missed = new AtomicBoolean();
+
+        Mono<KvittDeltaResponseDTO> initial = Mono.fromCallable(() -> toDelta(eventLedgerService.getLedger(username), SettlementChanges.NONE))
+                .subscribeOn(Schedulers.boundedElastic());
+        Flux<KvittDeltaResponseDTO> changes = Flux.<KvittDeltaResponseDTO>create(sink -> {
+                    Runnable removeListener = addListener(username, sink::next);
+                    sink.onDispose(removeListener::run);
+                })
+                .onBackpressureBuffer(bufferSize, dropped -> {
+                    missed.set(true);
+                    droppedCounter.increment();
+                }, BufferOverflowStrategy.DROP_OLDEST);
+
+        Flux<ServerSentEvent<KvittDeltaResponseDTO>> deltas = initial.concatWith(changes)
+                .map(delta -> ServerSentEvent.builder(missed.getAndSet(false) ? delta.asMissed() : delta)
+                        .event("kvitt")
+                        .id(Long.toString(delta.revision()))
+                        .build())
+                .doOnNext(event -> sentCounter.increment());
+        Flux<ServerSentEvent<KvittDeltaResponseDTO>> heartbeats = Flux.interval(heartbeatInterval)
+                .map(tick -> ServerSentEvent.<KvittDeltaResponseDTO>builder().comment("heartbeat").build());
+
+        return deltas.mergeWith(heartbeats)
+                .take(timeout);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private Runnable addListener(String username, Consumer<KvittDeltaResponseDTO> listener) {
+        listeners.compute(username, (key, current) -> {
+            Set<Consumer<KvittDeltaResponseDTO>> userListeners = current != null ? current : ConcurrentHashMap.newKeySet();
+            if (userListeners.size() >= maxConnectionsPerUser) {
+                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many open subscriptions");
+            }
+            userListeners.add(listener);
+            return userListeners;
+        });
+
+        return () -> listeners.computeIfPresent(username, (key, current) -> {
+            current.remove(listener);
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    private KvittDeltaResponseDTO toDelta(EventLedger ledger, SettlementChanges changes) {
+        return new KvittDeltaResponseDTO(
+                ledger.getRevision(),
+                ledger.getTotalIncome(),
+                ledger.getTotalExpense(),
+                ledger.getTotalIncome().subtract(ledger.getTotalExpense()),
+                changes.paidEventIds(),
+                changes.unpaidEventIds(),
+                eventMapper.toKvittStatusDTO(ledger),
+                false
+        );
+    }
+
+    private static Counter deltaCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("kvitt.push.deltas")
+                .description("Kvitt status deltas pushed to subscribers")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
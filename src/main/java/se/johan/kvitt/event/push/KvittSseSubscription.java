@@ -0,0 +1,156 @@
+package se.johan.kvitt.event.push;
+
+import io.micrometer.core.instrument.Counter;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import se.johan.kvitt.event.dto.response.KvittDeltaResponseDTO;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * En SSE-anslutning med en egen, begränsad buffert. Ändringar läggs i bufferten utan att blockera
+ * och skrivs till klienten av en separat tråd. Är bufferten full kastas den äldsta ändringen,
+ * eftersom varje ändring ändå innehåller de senaste totalerna, och nästa ändring märks som missed.
+ */
+final class KvittSseSubscription implements Consumer<KvittDeltaResponseDTO> {
+
+    private final SseEmitter emitter;
+    private final int capacity;
+    private final Executor executor;
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Deque<KvittDeltaResponseDTO> buffer = new ArrayDeque<>();
+    // ReentrantLock istället för synchronized så att virtuella trådar inte låses fast vid väntan
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean draining;
+    private boolean missed;
+    private boolean heartbeatPending;
+    private boolean closed;
+
+    KvittSseSubscription(SseEmitter emitter, int capacity, Executor executor, Counter sentCounter, Counter droppedCounter) {
+        this.emitter = emitter;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.sentCounter = sentCounter;
+        this.droppedCounter = droppedCounter;
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    @Override
+    public void accept(KvittDeltaResponseDTO delta) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (buffer.size() >= capacity) {
+                buffer.pollFirst();
+                missed = true;
+                droppedCounter.increment();
+            }
+            buffer.addLast(delta);
+        } finally {
+            lock.unlock();
+        }
+        startDraining();
+    }
+
+    /**
+     * Skickar en SSE-kommentar om inget annat väntar på att skickas.
+     */
+    void heartbeat() {
+        lock.lock();
+        try {
+            if (closed || !buffer.isEmpty()) {
+                return;
+            }
+            heartbeatPending = true;
+        } finally {
+            lock.unlock();
+        }
+        startDraining();
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            buffer.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private void startDraining() {
+        lock.lock();
+        try {
+            if (draining || closed) {
+                return;
+            }
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(this::drain);
+    }
+
+    /**
+     * Högst en drain-tråd per anslutning, så att ändringarna skrivs i ordning.
+     */
+    private void drain() {
+        while (true) {
+            SseEmitter.SseEventBuilder event;
+            boolean isDelta;
+            lock.lock();
+            try {
+                KvittDeltaResponseDTO delta = closed ? null : buffer.pollFirst();
+                if (delta != null) {
+                    event = SseEmitter.event()
+                            .name("kvitt")
+                            .id(Long.toString(delta.revision()))
+                            .data(missed ? delta.asMissed() : delta, MediaType.APPLICATION_JSON);
+                    isDelta = true;
+                    missed = false;
+                    heartbeatPending = false;
+                } else if (heartbeatPending && !closed) {
+                    event = SseEmitter.event().comment("heartbeat");
+                    isDelta = false;
+                    heartbeatPending = false;
+                } else {
+                    draining = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                emitter.send(event);
+                if (isDelta) {
+                    sentCounter.increment();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Klienten har kopplat ner; emittern anropar onError/onCompletion som tar bort prenumerationen
+                close();
+                emitter.completeWithError(e);
+                lock.lock();
+                try {
+                    draining = false;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package se.johan.kvitt.event.reactive;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.EventImportResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.dto.response.ExpenseResponseDTO;
+import se.johan.kvitt.event.push.KvittPushService;
+import se.johan.kvitt.event.service.EventImportService;
+import se.johan.kvitt.event.service.EventRollupService;
+import se.johan.kvitt.event.service.EventService;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static se.johan.kvitt.event.reactive.ReactiveEventService.blocking;
+
+/**
+ * Handler-funktioner för det reaktiva event-API:et, se {@link EventRouter}.
+ * Svaren är desamma som från EventController, inklusive ETag och 304 Not Modified på alla GET-anrop.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class EventHandler {
+
+    // Importen läses in i minnet innan den skickas till EventImportService, så storleken begränsas
+    private static final int MAX_IMPORT_BYTES = 32 * 1024 * 1024;
+    private static final CacheControl NO_CACHE = CacheControl.noCache().cachePrivate();
+
+    private final ReactiveEventService reactiveEventService;
+    private final EventService eventService;
+    private final EventImportService eventImportService;
+    private final EventRollupService eventRollupService;
+    private final KvittPushService kvittPushService;
+    private final Validator validator;
+
+    /**
+     * Konstruktor för EventHandler.
+     * @param reactiveEventService Servicen som läser händelser reaktivt.
+     * @param eventService Servicen som hanterar skrivningar och paginering av händelser.
+     * @param eventImportService Servicen som hanterar import av många händelser på en gång.
+     * @param eventRollupService Servicen som hanterar dag- och månadssummor.
+     * @param kvittPushService Servicen som skickar ändringar till prenumeranter.
+     * @param validator Validerar request body, motsvarar @Valid i EventController.
+     */
+    @Autowired
+    public EventHandler(ReactiveEventService reactiveEventService, EventService eventService, EventImportService eventImportService,
+                        EventRollupService eventRollupService, KvittPushService kvittPushService, Validator validator) {
+        this.reactiveEventService = reactiveEventService;
+        this.eventService = eventService;
+        this.eventImportService = eventImportService;
+        this.eventRollupService = eventRollupService;
+        this.kvittPushService = kvittPushService;
+        this.validator = validator;
+    }
+
+    /**
+     * Skapar en ny ekonomisk händelse.
+     * @return Den skapade händelsen med status 201 Created.
+     */
+    public Mono<ServerResponse> createEvent(ServerRequest request) {
+        return request.bodyToMono(CreateEventDto.class)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Request body is missing")))
+                .map(this::validate)
+                .flatMap(dto -> blocking(() -> eventService.createEvent(dto)))
+                .flatMap(event -> ServerResponse.status(HttpStatus.CREATED).bodyValue(event));
+    }
+
+    /**
+     * Importerar händelser från en JSON-array, NDJSON eller CSV beroende på content-type.
+     * @return Antal importerade och avvisade rader med status 201 Created.
+     */
+    public Mono<ServerResponse> importEvents(ServerRequest request) {
+        boolean csv = request.headers().contentType()
+                .map(contentType -> contentType.isCompatibleWith(MediaType.parseMediaType("text/csv")))
+                .orElse(false);
+
+        // EventImportService läser en InputStream, så body samlas ihop (högst MAX_IMPORT_BYTES)
+        // och importen körs på boundedElastic
+        return DataBufferUtils.join(request.body(BodyExtractors.toDataBuffers()), MAX_IMPORT_BYTES)
+                .flatMap(dataBuffer -> blocking(() -> importBody(dataBuffer, csv)))
+                .flatMap(result -> ServerResponse.status(HttpStatus.CREATED).bodyValue(result));
+    }
+
+    /**
+     * Uppdaterar en befintlig ekonomisk händelse som tillhör den inloggade användaren.
+     * @return Den uppdaterade händelsen med status 202 Accepted.
+     */
+    public Mono<ServerResponse> editEvent(ServerRequest request) {
+        return request.principal()
+                .flatMap(principal -> request.bodyToMono(EditEventDto.class)
+                        .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Request body is missing")))
+                        .map(this::validate)
+                        .flatMap(dto -> blocking(() -> eventService.editEvent(principal.getName(), dto))))
+                .flatMap(event -> ServerResponse.accepted().bodyValue(event))
+                .switchIfEmpty(ServerResponse.accepted().build());
+    }
+
+    /**
+     * Raderar en händelse som tillhör den inloggade användaren baserat på dess ID.
+     * @return Status 204 No Content.
+     */
+    public Mono<ServerResponse> deleteEvent(ServerRequest request) {
+        String id = requiredParam(request, "id");
+        return request.principal()
+                .flatMap(principal -> blocking(() -> {
+                    eventService.deleteEvent(principal.getName(), id);
+                    return id;
+                }))
+                .then(ServerResponse.noContent().build());
+    }
+
+    /**
+     * Hämtar alla händelser för en användare. Listan strömmas från databasen till svaret.
+     */
+    public Mono<ServerResponse> getAllEventsByUsername(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> response
+                .body(reactiveEventService.getAllEventsByUsername(username), EventGetAllEventsByUsernameResponseDTO.class));
+    }
+
+    /**
+     * Hämtar alla händelser för en användare i kolumnformat (en array per fält).
+     */
+    public Mono<ServerResponse> getAllEventsAsColumns(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> reactiveEventService.getAllEventsAsColumns(username)
+                .flatMap(response::bodyValue));
+    }
+
+    /**
+     * Strömmar alla händelser för en användare som NDJSON (en händelse per rad).
+     */
+    public Mono<ServerResponse> streamAllEventsByUsername(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> response
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(reactiveEventService.getAllEventsByUsername(username), EventGetAllEventsByUsernameResponseDTO.class));
+    }
+
+    /**
+     * Hämtar en användares händelser sida för sida i datumordning (keyset-paginering).
+     */
+    public Mono<ServerResponse> getEventsPage(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        String cursor = request.queryParam("cursor").orElse(null);
+        Integer limit = request.queryParam("limit").map(value -> parseInt(value, "limit")).orElse(null);
+
+        return conditional(request, username, response -> blocking(() -> eventService.getEventsPage(username, cursor, limit))
+                .flatMap(response::bodyValue));
+    }
+
+    /**
+     * Hämtar den totala summan av inkomster för en användare.
+     */
+    public Mono<ServerResponse> getTotalIncome(ServerRequest request) {
+        return summaryValue(request, EventSummaryResponseDTO::totalIncome);
+    }
+
+    /**
+     * Hämtar den totala summan av utgifter för en användare.
+     */
+    public Mono<ServerResponse> getTotalExpense(ServerRequest request) {
+        return summaryValue(request, EventSummaryResponseDTO::totalExpense);
+    }
+
+    /**
+     * Hämtar det ekonomiska nettot (balansen) för en användare.
+     */
+    public Mono<ServerResponse> getFinancials(ServerRequest request) {
+        return summaryValue(request, EventSummaryResponseDTO::financials);
+    }
+
+    /**
+     * Hämtar total inkomst, total utgift och ekonomiskt netto i ett och samma anrop.
+     */
+    public Mono<ServerResponse> getSummary(ServerRequest request) {
+        return summaryValue(request, Function.identity());
+    }
+
+    /**
+     * Hämtar inkomster, utgifter och netto per månad för de senaste månaderna (standard 12, max 120).
+     */
+    public Mono<ServerResponse> getMonthlyTotals(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        int months = request.queryParam("months").map(value -> parseInt(value, "months")).orElse(12);
+
+        return conditional(request, username, response -> blocking(() -> eventRollupService.getMonthlyTotals(username, months))
+                .flatMap(response::bodyValue));
+    }
+
+    /**
+     * Hämtar inkomster, utgifter och netto per dag mellan två datum (from och to som ISO-datum).
+     */
+    public Mono<ServerResponse> getDailyTotals(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        LocalDate from = parseDate(requiredParam(request, "from"), "from");
+        LocalDate to = parseDate(requiredParam(request, "to"), "to");
+
+        return conditional(request, username, response -> blocking(() -> eventRollupService.getDailyTotals(username, from, to))
+                .flatMap(response::bodyValue));
+    }
+
+    /**
+     * Hämtar en sammanfattande status (KvittStatus) för en användare.
+     */
+    public Mono<ServerResponse> getKvittStatus(ServerRequest request) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> reactiveEventService.getKvittStatus(username)
+                .flatMap(response::bodyValue));
+    }
+
+    /**
+     * Hämtar alla betalda utgifter för en användare.
+     */
+    public Mono<ServerResponse> getPaidEvents(ServerRequest request) {
+        return expenses(request, true);
+    }
+
+    /**
+     * Hämtar alla betalda utgifter för en användare i kolumnformat.
+     */
+    public Mono<ServerResponse> getPaidEventsAsColumns(ServerRequest request) {
+        return expensesAsColumns(request, true);
+    }
+
+    /**
+     * Hämtar alla obetalda utgifter för en användare.
+     */
+    public Mono<ServerResponse> getUnPaidEvents(ServerRequest request) {
+        return expenses(request, false);
+    }
+
+    /**
+     * Hämtar alla obetalda utgifter för en användare i kolumnformat.
+     */
+    public Mono<ServerResponse> getUnPaidEventsAsColumns(ServerRequest request) {
+        return expensesAsColumns(request, false);
+    }
+
+    /**
+     * Prenumererar på ändringar för den inloggade användaren via Server-Sent Events.
+     */
+    public Mono<ServerResponse> subscribe(ServerRequest request) {
+        return request.principal()
+                .flatMap(principal -> ServerResponse.ok()
+                        .contentType(MediaType.TEXT_EVENT_STREAM)
+                        .body(BodyInserters.fromServerSentEvents(kvittPushService.openEventStream(principal.getName()))));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * Svarar 304 Not Modified om klientens ETag fortfarande gäller, annars 200 med ETag-header
+     * och svaret från body. Svaret byggs bara när användarens data har ändrats.
+     */
+    private Mono<ServerResponse> conditional(ServerRequest request, String username,
+                                             Function<ServerResponse.BodyBuilder, Mono<ServerResponse>> body) {
+        return reactiveEventService.getETag(username)
+                .flatMap(eTag -> request.checkNotModified(eTag)
+                        .switchIfEmpty(Mono.defer(() -> body.apply(ServerResponse.ok().eTag(eTag).cacheControl(NO_CACHE)))));
+    }
+
+    private <R> Mono<ServerResponse> summaryValue(ServerRequest request, Function<EventSummaryResponseDTO, R> value) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> reactiveEventService.getSummary(username)
+                .flatMap(summary -> response.bodyValue(value.apply(summary))));
+    }
+
+    private Mono<ServerResponse> expenses(ServerRequest request, boolean paid) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> response
+                .body(reactiveEventService.getExpenses(username, paid), ExpenseResponseDTO.class));
+    }
+
+    private Mono<ServerResponse> expensesAsColumns(ServerRequest request, boolean paid) {
+        String username = requiredParam(request, "username");
+        return conditional(request, username, response -> reactiveEventService.getExpensesAsColumns(username, paid)
+                .flatMap(response::bodyValue));
+    }
+
+    private EventImportResponseDTO importBody(DataBuffer dataBuffer, boolean csv) throws Exception {
+        // asInputStream(true) släpper bufferten när strömmen stängs
+        try (InputStream inputStream = dataBuffer.asInputStream(true)) {
+            return csv ? eventImportService.importCsv(inputStream) : eventImportService.importJson(inputStream);
+        }
+    }
+
+    private <T> T validate(T dto) {
+        Set<ConstraintViolation<T>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            throw new ServerWebInputException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", ")));
+        }
+        return dto;
+    }
+
+    private static String requiredParam(ServerRequest request, String name) {
+        return request.queryParam(name)
+                .orElseThrow(() -> new ServerWebInputException("Required parameter '" + name + "' is missing"));
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Parameter '" + name + "' must be a number");
+        }
+    }
+
+    private static LocalDate parseDate(String value, String name) {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new ServerWebInputException("Parameter '" + name + "' must be an ISO date");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package se.johan.kvitt.event.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Funktionella routes för det reaktiva event-API:et. Samma sökvägar och parametrar som EventController,
+ * så att frontend kan köras mot båda varianterna. Används bara med profilen reactive.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class EventRouter {
+
+    /**
+     * Kopplar varje sökväg under api/v1/event till en metod i {@link EventHandler}.
+     * Varianter med format=columns och format=ndjson ligger före standardvarianten, eftersom första träff vinner.
+     * @param eventHandler Handler-funktionerna för händelser.
+     * @return RouterFunction med alla event-routes.
+     */
+    @Bean
+    public RouterFunction<ServerResponse> eventRoutes(EventHandler eventHandler) {
+        RequestPredicate columns = queryParam("format", "columns");
+        RequestPredicate ndjson = queryParam("format", "ndjson");
+
+        return route()
+                .path("/api/v1/event", builder -> builder
+                        .POST("/create", eventHandler::createEvent)
+                        .POST("/import", contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON, MediaType.parseMediaType("text/csv")),
+                                eventHandler::importEvents)
+                        .PUT("/edit", eventHandler::editEvent)
+                        .DELETE("/delete", eventHandler::deleteEvent)
+                        .GET("/getAllEvents", columns, eventHandler::getAllEventsAsColumns)
+                        .GET("/getAllEvents", ndjson, eventHandler::streamAllEventsByUsername)
+                        .GET("/getAllEvents", eventHandler::getAllEventsByUsername)
+                        .GET("/getEventsPage", eventHandler::getEventsPage)
+                        .GET("/getTotalIncome", eventHandler::getTotalIncome)
+                        .GET("/getTotalExpense", eventHandler::getTotalExpense)
+                        .GET("/getFinancials", eventHandler::getFinancials)
+                        .GET("/summary", eventHandler::getSummary)
+                        .GET("/getMonthlyTotals", eventHandler::getMonthlyTotals)
+                        .GET("/getDailyTotals", eventHandler::getDailyTotals)
+                        .GET("/getKvittStatus", eventHandler::getKvittStatus)
+                        .GET("/getPaidEvents", columns, eventHandler::getPaidEventsAsColumns)
+                        .GET("/getPaidEvents", eventHandler::getPaidEvents)
+                        .GET("/getUnPaidEvents", columns, eventHandler::getUnPaidEventsAsColumns)
+                        .GET("/getUnPaidEvents", eventHandler::getUnPaidEvents)
+                        .GET("/subscribe", eventHandler::subscribe))
+                .build();
+    }
+}
@@ -0,0 +1,128 @@
+package se.johan.kvitt.event.reactive;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.johan.kvitt.event.dto.response.EventColumnsResponseDTO;
+import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.dto.response.ExpenseResponseDTO;
+import se.johan.kvitt.event.dto.response.KvittStatusResponseDTO;
+import se.johan.kvitt.event.model.EventAmountTotal;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.objectMapper.EventMapper;
+import se.johan.kvitt.event.repository.ReactiveEventRepository;
+import se.johan.kvitt.event.service.EventLedgerService;
+import se.johan.kvitt.event.service.EventService;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Läsningar för det reaktiva API:et. Listor, summor och kvitt-status läses med den reaktiva
+ * drivrutinen utan att blockera någon tråd. Skrivningar och sällsynta vägar (t.ex. en ledger
+ * som saknas) går via de vanliga tjänsterna på boundedElastic, se {@link #blocking(Callable)}.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveEventService {
+
+    private final ReactiveEventRepository reactiveEventRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final EventMapper eventMapper;
+    private final EventLedgerService eventLedgerService;
+
+    @Autowired
+    public ReactiveEventService(ReactiveEventRepository reactiveEventRepository, ReactiveMongoTemplate reactiveMongoTemplate,
+                                EventMapper eventMapper, EventLedgerService eventLedgerService) {
+        this.reactiveEventRepository = reactiveEventRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.eventMapper = eventMapper;
+        this.eventLedgerService = eventLedgerService;
+    }
+
+    public Flux<EventGetAllEventsByUsernameResponseDTO> getAllEventsByUsername(String username) {
+        return reactiveEventRepository.findByUsernameOrderByDateTimeAscIdAsc(username)
+                .map(eventMapper::toGetAllEventsByIdDTO);
+    }
+
+    public Mono<EventColumnsResponseDTO> getAllEventsAsColumns(String username) {
+        return reactiveEventRepository.findByUsernameOrderByDateTimeAscIdAsc(username)
+                .collectList()
+                .map(events -> eventMapper.toColumnsDTO(events, true));
+    }
+
+    public Flux<ExpenseResponseDTO> getExpenses(String username, boolean paid) {
+        return reactiveEventRepository.findExpensesByPaid(username, paid)
+                .map(eventMapper::toExpenseDTO);
+    }
+
+    public Mono<EventColumnsResponseDTO> getExpensesAsColumns(String username, boolean paid) {
+        return reactiveEventRepository.findExpensesByPaid(username, paid)
+                .collectList()
+                .map(events -> eventMapper.toColumnsDTO(events, false));
+    }
+
+    public Mono<EventSummaryResponseDTO> getSummary(String username) {
+        return reactiveEventRepository.sumAmountsByExpense(username)
+                .collectList()
+                .map(ReactiveEventService::toSummary);
+    }
+
+    public Mono<KvittStatusResponseDTO> getKvittStatus(String username) {
+        return reactiveMongoTemplate.findById(username, EventLedger.class)
+                .switchIfEmpty(blocking(() -> eventLedgerService.getLedger(username)))
+                .map(eventMapper::toKvittStatusDTO);
+    }
+
+    /**
+     * Samma ETag som EventService.getETag (samma tidszon för datumet), men ledgerns revision läses reaktivt.
+     */
+    public Mono<String> getETag(String username) {
+        Query query = query(where("username").is(username));
+        query.fields().include("revision");
+
+        return reactiveMongoTemplate.findOne(query, EventLedger.class)
+                .map(EventLedger::getRevision)
+                .switchIfEmpty(blocking(() -> eventLedgerService.getRevision(username)))
+                .map(EventService::toETag);
+    }
+
+    /**
+     * Kör blockerande kod (de vanliga tjänsterna med lås, ledger och settlement) på boundedElastic
+     * så att WebFlux-serverns trådar aldrig blockeras.
+     */
+    public static <T> Mono<T> blocking(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private static EventSummaryResponseDTO toSummary(List<EventAmountTotal> amountTotals) {
+        BigDecimal totalIncome = BigDecimal.ZERO;
+        BigDecimal totalExpense = BigDecimal.ZERO;
+
+        for (EventAmountTotal amountTotal : amountTotals) {
+            if (amountTotal.expense()) {
+                totalExpense = amountTotal.total();
+            } else {
+                totalIncome = amountTotal.total();
+            }
+        }
+
+        return new EventSummaryResponseDTO(
+                totalIncome,
+                totalExpense,
+                totalIncome.subtract(totalExpense)
+        );
+    }
+}
@@ -0,0 +1,57 @@
+package se.johan.kvitt.event.readmodel;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Sparar resume token för change streams så att en konsument kan fortsätta där den
+ * slutade efter en omstart eller krasch. En post per ström i readModelCheckpoints.
+ */
+@Component
+public class ChangeStreamCheckpointStore {
+
+    private static final String COLLECTION = "readModelCheckpoints";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public ChangeStreamCheckpointStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public Optional<BsonDocument> findResumeToken(String streamName) {
+        BsonDocument checkpoint = checkpoints().find(Filters.eq("_id", streamName)).first();
+        if (checkpoint == null || !checkpoint.isDocument("resumeToken")) {
+            return Optional.empty();
+        }
+        return Optional.of(checkpoint.getDocument("resumeToken"));
+    }
+
+    public void saveResumeToken(String streamName, BsonDocument resumeToken) {
+        BsonDocument checkpoint = new BsonDocument("_id", new BsonString(streamName))
+                .append("resumeToken", resumeToken)
+                .append("updatedAt", new BsonDateTime(System.currentTimeMillis()));
+
+        checkpoints().replaceOne(Filters.eq("_id", streamName), checkpoint, new ReplaceOptions().upsert(true));
+    }
+
+    public void clear(String streamName) {
+        checkpoints().deleteOne(Filters.eq("_id", streamName));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    // Token är en opak BSON-struktur, så den lagras och läses som rå BSON utan mappning
+    private MongoCollection<BsonDocument> checkpoints() {
+        return mongoTemplate.getDb().getCollection(COLLECTION, BsonDocument.class);
+    }
+}
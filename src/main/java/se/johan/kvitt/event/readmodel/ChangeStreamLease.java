@@ -0,0 +1,82 @@
+package se.johan.kvitt.event.readmodel;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Lease per change stream i readModelLeases, så att bara en instans åt gången konsumerar strömmen
+ * och skriver dess checkpoint. Leasen förnyas i samma transaktion som ändringarna registreras i,
+ * så en instans som förlorat leasen kan inte committa något efter att en annan tagit över.
+ * Utgångstiden sätts från instansens klocka; klockorna antas skilja mindre än leasens längd.
+ */
+@Component
+public class ChangeStreamLease {
+
+    private static final String COLLECTION = "readModelLeases";
+
+    private final MongoTemplate mongoTemplate;
+    private final String owner = UUID.randomUUID().toString();
+
+    @Autowired
+    public ChangeStreamLease(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Tar leasen om den är ledig, har gått ut eller redan tillhör den här instansen.
+     * @return true om instansen har leasen.
+     */
+    public boolean tryAcquire(String streamName, Duration duration) {
+        long now = System.currentTimeMillis();
+        try {
+            leases().findOneAndUpdate(
+                    Filters.and(Filters.eq("_id", streamName),
+                            Filters.or(Filters.eq("owner", owner), Filters.lt("expiresAt", new BsonDateTime(now)))),
+                    Updates.combine(Updates.set("owner", owner), Updates.set("expiresAt", new BsonDateTime(now + duration.toMillis()))),
+                    new FindOneAndUpdateOptions().upsert(true));
+            return true;
+        } catch (MongoServerException e) {
+            // Upserten krockar på _id när en annan instans har en giltig lease
+            if (ErrorCategory.fromErrorCode(e.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Förlänger leasen. Körs i en transaktion skrivs leasen tillsammans med resten av transaktionen.
+     * @return false om en annan instans har tagit över leasen.
+     */
+    public boolean renew(String streamName, Duration duration) {
+        return leases().updateOne(
+                Filters.and(Filters.eq("_id", streamName), Filters.eq("owner", owner)),
+                Updates.set("expiresAt", new BsonDateTime(System.currentTimeMillis() + duration.toMillis()))
+        ).getMatchedCount() > 0;
+    }
+
+    /**
+     * Släpper leasen så att en annan instans kan ta över direkt istället för när den gått ut.
+     */
+    public void release(String streamName) {
+        leases().deleteOne(Filters.and(Filters.eq("_id", streamName), Filters.eq("owner", owner)));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private MongoCollection<BsonDocument> leases() {
+        return mongoTemplate.getDb().getCollection(COLLECTION, BsonDocument.class);
+    }
+}
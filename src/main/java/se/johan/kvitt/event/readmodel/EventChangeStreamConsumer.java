@@ -0,0 +1,511 @@
+package se.johan.kvitt.event.readmodel;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.push.KvittPushService;
+import se.johan.kvitt.event.service.EventLedgerService;
+import se.johan.kvitt.event.service.EventRollupService;
+import se.johan.kvitt.event.service.EventSettlementEngine;
+import se.johan.kvitt.event.service.UserWriteGuard;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Håller ledger, rollups och betalstatus uppdaterade utifrån en change stream på events.
+ * Aktiveras med {@code kvitt.read-model.change-stream.enabled=true}; skrivningarna i EventService
+ * sparar då bara själva eventet. Kräver att MongoDB körs som replica set.
+ *
+ * Ändringar samlas i batchar. Varje ändring räknas in i ledger och rollups utifrån sin pre- och
+ * post-image, och hela batchen skrivs i en transaktion tillsammans med resume token och en förnyad
+ * lease (ChangeStreamLease). En batch räknas alltså in exakt en gång, och bara av den instans som
+ * har leasen. Betalstatus räknas om efter commit, via indexet när användaren har en enda ändring i batchen.
+ *
+ * Saknas en image (pre-images avstängda eller utgångna) byggs användaren om från events i
+ * batchens transaktion. Ombyggnaden innehåller då ändringar som strömmen inte levererat än; de känns
+ * igen på eventens version och räknas inte in igen förrän strömmen har kommit ikapp.
+ */
+@Component
+@ConditionalOnProperty(name = "kvitt.read-model.change-stream.enabled", havingValue = "true")
+public class EventChangeStreamConsumer implements SmartLifecycle {
+
+    private static final String STREAM_NAME = "events";
+    // Fält som bara settlement själv skriver; sådana ändringar påverkar inte read-modellen
+    private static final Set<String> DERIVED_FIELDS = Set.of("paid", "version");
+    // ChangeStreamHistoryLost: resume token finns inte längre kvar i oploggen
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final long RETRY_DELAY_MS = 5_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final ChangeStreamCheckpointStore checkpointStore;
+    private final ChangeStreamLease lease;
+    private final EventLedgerService eventLedgerService;
+    private final EventRollupService eventRollupService;
+    private final EventSettlementEngine eventSettlementEngine;
+    private final UserWriteGuard userWriteGuard;
+    private final KvittPushService kvittPushService;
+    private final int maxBatchSize;
+    private final Duration leaseDuration;
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter appliedChanges;
+    private final Counter ignoredChanges;
+    private final Counter unresolvedChanges;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private volatile boolean running;
+    private volatile boolean fullResyncNeeded;
+    private Thread consumerThread;
+    // Användare som byggts om sedan strömmen senast var ikapp, med eventens versioner vid ombyggnaden
+    private final Map<String, RebuiltUser> rebuiltUsers = new HashMap<>();
+    // Efter en resync eller ett fel byggs varje användare om vid sin första ändring tills strömmen är ikapp
+    private boolean catchingUp;
+    private long leaseRenewedAt;
+
+    @Autowired
+    public EventChangeStreamConsumer(MongoTemplate mongoTemplate, ChangeStreamCheckpointStore checkpointStore, ChangeStreamLease lease,
+                                     EventLedgerService eventLedgerService, EventRollupService eventRollupService,
+                                     EventSettlementEngine eventSettlementEngine, UserWriteGuard userWriteGuard,
+                                     KvittPushService kvittPushService, MeterRegistry meterRegistry,
+                                     @Value("${kvitt.read-model.change-stream.max-batch-size:500}") int maxBatchSize,
+                                     @Value("${kvitt.read-model.change-stream.lease-duration:30s}") Duration leaseDuration) {
+        // Batchen, resume token och leasen måste skrivas tillsammans, annars kan ändringar räknas två gånger efter ett fel
+        if (!userWriteGuard.transactionsEnabled()) {
+            throw new IllegalStateException("kvitt.read-model.change-stream.enabled requires kvitt.mongo.transactions.enabled=true");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.checkpointStore = checkpointStore;
+        this.lease = lease;
+        this.eventLedgerService = eventLedgerService;
+        this.eventRollupService = eventRollupService;
+        this.eventSettlementEngine = eventSettlementEngine;
+        this.userWriteGuard = userWriteGuard;
+        this.kvittPushService = kvittPushService;
+        this.maxBatchSize = maxBatchSize;
+        this.leaseDuration = leaseDuration;
+
+        Gauge.builder("kvitt.read-model.lag", lagMillis, lag -> lag.get() / 1000.0)
+                .description("Time between a change being committed and the read model reflecting it")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.appliedChanges = changeCounter(meterRegistry, "applied");
+        this.ignoredChanges = changeCounter(meterRegistry, "ignored");
+        this.unresolvedChanges = changeCounter(meterRegistry, "unresolved");
+    }
+
+    @Override
+    public void start() {
+        enablePreImages();
+
+        running = true;
+        consumerThread = new Thread(this::consume, "event-change-stream");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+        logger.info("Event change stream consumer started");
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (consumerThread != null) {
+            try {
+                // Markören väntar högst en sekund per varv, så tråden ser flaggan snabbt
+                consumerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            lease.release(STREAM_NAME);
+        } catch (DataAccessException | MongoException e) {
+            logger.warn("Could not release change stream lease: {}", e.getMessage());
+        }
+        logger.info("Event change stream consumer stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private void consume() {
+        while (running) {
+            if (!lease.tryAcquire(STREAM_NAME, leaseDuration)) {
+                // En annan instans konsumerar strömmen; försök igen när dess lease kan ha gått ut
+                sleep(leaseDuration.toMillis() / 2);
+                continue;
+            }
+            leaseRenewedAt = System.currentTimeMillis();
+            // En tidigare ägare eller ett tillbakarullat försök kan ha byggt om användare längre fram än
+            // sparad resume token, så varje användare byggs om vid sin första ändring tills strömmen är ikapp
+            startCatchingUp();
+
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = openCursor()) {
+                if (fullResyncNeeded) {
+                    resyncAll();
+                }
+                consumeFrom(cursor);
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                    logger.error("Change stream resume token is no longer in the oplog, resyncing all users");
+                    checkpointStore.clear(STREAM_NAME);
+                    fullResyncNeeded = true;
+                } else {
+                    logger.error("Change stream failed, retrying in {} ms: {}", RETRY_DELAY_MS, e.getMessage());
+                    sleep(RETRY_DELAY_MS);
+                }
+            } catch (RuntimeException e) {
+                // Även fel i en batch hamnar här; transaktionen är då tillbakarullad och batchen körs om
+                // från senast sparade resume token
+                logger.error("Change stream failed, retrying in {} ms: {}", RETRY_DELAY_MS, e.getMessage());
+                sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private void consumeFrom(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+        List<ChangeStreamDocument<Document>> pending = new ArrayList<>();
+        BsonDocument lastSavedToken = null;
+
+        while (running) {
+            // Väntar högst maxAwaitTime; null betyder att strömmen är ikapp
+            ChangeStreamDocument<Document> change = cursor.tryNext();
+            if (change != null) {
+                pending.add(change);
+            }
+
+            if (change == null || pending.size() >= maxBatchSize) {
+                BsonDocument resumeToken = cursor.getResumeToken();
+                boolean tokenChanged = resumeToken != null && !resumeToken.equals(lastSavedToken);
+                if (!pending.isEmpty() || tokenChanged) {
+                    applyBatch(pending, tokenChanged ? resumeToken : null);
+                    lastSavedToken = resumeToken;
+                    pending.clear();
+                } else {
+                    renewLeaseIfDue();
+                }
+            }
+
+            if (change == null) {
+                // Allt som fanns när en ombyggnad läste events har nu levererats
+                catchingUp = false;
+                rebuiltUsers.clear();
+            }
+        }
+    }
+
+    /**
+     * Räknar in batchen och sparar resume token i en transaktion, och räknar sedan om betalstatus.
+     * @param resumeToken Token att spara, eller null om den inte har ändrats.
+     * @throws IllegalStateException Om en annan instans har tagit över leasen.
+     */
+    private void applyBatch(List<ChangeStreamDocument<Document>> changes, BsonDocument resumeToken) {
+        Map<String, UserChanges> changesByUser = userWriteGuard.inTransaction(() -> {
+            if (!lease.renew(STREAM_NAME, leaseDuration)) {
+                throw new IllegalStateException("Lease on change stream " + STREAM_NAME + " was taken over by another instance");
+            }
+
+            Map<String, UserChanges> applied = new LinkedHashMap<>();
+            for (ChangeStreamDocument<Document> change : changes) {
+                apply(change, applied);
+            }
+            if (resumeToken != null) {
+                checkpointStore.saveResumeToken(STREAM_NAME, resumeToken);
+            }
+            return applied;
+        });
+        leaseRenewedAt = System.currentTimeMillis();
+
+        changesByUser.forEach(this::settle);
+        recordLag(changes.isEmpty() ? null : changes.get(0).getClusterTime());
+    }
+
+    /**
+     * Räknar in en ändring i ledger och rollups. Körs i batchens transaktion.
+     */
+    private void apply(ChangeStreamDocument<Document> change, Map<String, UserChanges> applied) {
+        OperationType operation = change.getOperationType();
+        if (operation == OperationType.UPDATE && onlyDerivedFieldsChanged(change.getUpdateDescription())) {
+            ignoredChanges.increment();
+            return;
+        }
+
+        Event before = operation == OperationType.INSERT ? null : toEvent(change.getFullDocumentBeforeChange());
+        Event after = operation == OperationType.DELETE ? null : toEvent(change.getFullDocument());
+        String username = username(change, before, after);
+        if (username == null) {
+            // En borttagning utan pre-image i ett oshardat kluster innehåller bara _id
+            unresolvedChanges.increment();
+            logger.warn("Could not resolve user for {} of event {}", operation, change.getDocumentKey());
+            return;
+        }
+
+        UserChanges userChanges = applied.computeIfAbsent(username, key -> new UserChanges());
+        boolean imagesMissing = (operation != OperationType.INSERT && before == null)
+                || (operation != OperationType.DELETE && after == null);
+        boolean rebuildNeeded = imagesMissing
+                || (catchingUp && !rebuiltUsers.containsKey(username))
+                // Nya användare saknar ledger, och bara konsumenten skapar den i change stream-läget
+                || (!userChanges.rebuilt && userChanges.count == 0 && !eventLedgerService.exists(username));
+        if (rebuildNeeded) {
+            rebuild(username);
+            userChanges.rebuilt = true;
+            appliedChanges.increment();
+            return;
+        }
+
+        RebuiltUser rebuilt = rebuiltUsers.get(username);
+        if (rebuilt != null && rebuilt.alreadyCounted(before, after)) {
+            ignoredChanges.increment();
+            return;
+        }
+
+        if (before == null) {
+            eventLedgerService.recordCreated(after);
+            eventRollupService.recordCreated(after);
+        } else if (after == null) {
+            eventLedgerService.recordRemoved(before);
+            eventRollupService.recordRemoved(before);
+        } else {
+            eventLedgerService.recordEdited(before, after);
+            eventRollupService.recordEdited(before, after);
+        }
+        userChanges.add(before, after);
+        appliedChanges.increment();
+    }
+
+    /**
+     * Räknar om betalstatus efter commit. Med en enda ändring har ledgerns revision ökat med ett,
+     * så indexet i EventSettlementEngine kan följa med; annars görs en fullständig omräkning.
+     * I change stream-läget skickas ändringar till prenumeranter härifrån istället för från EventService.
+     */
+    private void settle(String username, UserChanges changes) {
+        userWriteGuard.withUserLock(username, () -> {
+            if (changes.rebuilt || changes.count > 1) {
+                kvittPushService.publish(username, eventSettlementEngine.resettle(username));
+            } else if (changes.count == 1 && changes.before == null) {
+                kvittPushService.publish(username, eventSettlementEngine.settleCreated(changes.after));
+            } else if (changes.count == 1 && changes.after == null) {
+                kvittPushService.publish(username, eventSettlementEngine.settleRemoved(changes.before));
+            } else if (changes.count == 1) {
+                kvittPushService.publish(username, eventSettlementEngine.settleEdited(changes.before, changes.after));
+            }
+        });
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor() {
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Event.class))
+                .watch(List.of(Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete"))))
+                // Post-image som eventet såg ut efter just den här ändringen, inte som det ser ut nu
+                .fullDocument(FullDocument.WHEN_AVAILABLE)
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+
+        checkpointStore.findResumeToken(STREAM_NAME).ifPresent(stream::resumeAfter);
+        return stream.cursor();
+    }
+
+    private Event toEvent(Document document) {
+        return document != null ? mongoTemplate.getConverter().read(Event.class, document) : null;
+    }
+
+    private static String username(ChangeStreamDocument<Document> change, Event before, Event after) {
+        if (after != null && after.getUsername() != null) {
+            return after.getUsername();
+        }
+        if (before != null && before.getUsername() != null) {
+            return before.getUsername();
+        }
+
+        // I ett shardat kluster innehåller documentKey även shard-nyckeln, så användaren går att hitta utan images
+        BsonDocument documentKey = change.getDocumentKey();
+        return documentKey != null && documentKey.isString("username") ? documentKey.getString("username").getValue() : null;
+    }
+
+    private static boolean onlyDerivedFieldsChanged(UpdateDescription updateDescription) {
+        if (updateDescription == null) {
+            return false;
+        }
+
+        boolean noRemovedFields = updateDescription.getRemovedFields() == null || updateDescription.getRemovedFields().isEmpty();
+        return noRemovedFields
+                && updateDescription.getUpdatedFields() != null
+                && DERIVED_FIELDS.containsAll(updateDescription.getUpdatedFields().keySet());
+    }
+
+    /**
+     * Bygger om användarens ledger och rollups från events i den pågående transaktionen och sparar
+     * eventens versioner, så att ändringar som ombyggnaden redan innehåller inte räknas in igen.
+     */
+    private void rebuild(String username) {
+        eventLedgerService.rebuild(username);
+        eventRollupService.rebuild(username);
+
+        Query versions = query(where("username").is(username));
+        versions.fields().include("version");
+        Map<String, Long> versionsById = new HashMap<>();
+        mongoTemplate.find(versions, Event.class)
+                .forEach(event -> versionsById.put(event.getId(), version(event)));
+        rebuiltUsers.put(username, new RebuiltUser(versionsById));
+    }
+
+    /**
+     * Bygger om alla användare när strömmen inte kan återupptas. Ändringar som sker under tiden
+     * levereras av den nyss öppnade strömmen, och varje användare byggs då om igen vid sin första ändring.
+     */
+    private void resyncAll() {
+        List<String> usernames = mongoTemplate.findDistinct(new Query(), "username", Event.class, String.class);
+        logger.info("Resyncing read model for {} users", usernames.size());
+
+        for (String username : usernames) {
+            userWriteGuard.withUserLock(username, () -> {
+                userWriteGuard.inTransaction(() -> {
+                    eventLedgerService.rebuild(username);
+                    eventRollupService.rebuild(username);
+                    return null;
+                });
+                kvittPushService.publish(username, eventSettlementEngine.resettle(username));
+            });
+        }
+        fullResyncNeeded = false;
+    }
+
+    private void startCatchingUp() {
+        rebuiltUsers.clear();
+        catchingUp = true;
+    }
+
+    private void renewLeaseIfDue() {
+        if (System.currentTimeMillis() - leaseRenewedAt < leaseDuration.toMillis() / 3) {
+            return;
+        }
+        if (!lease.renew(STREAM_NAME, leaseDuration)) {
+            throw new IllegalStateException("Lease on change stream " + STREAM_NAME + " was taken over by another instance");
+        }
+        leaseRenewedAt = System.currentTimeMillis();
+    }
+
+    private static long version(Event event) {
+        // Events från innan versionshanteringen fanns saknar versionsfältet
+        return event.getVersion() != null ? event.getVersion() : -1;
+    }
+
+    private void recordLag(BsonTimestamp oldestPending) {
+        // clusterTime har sekundupplösning, vilket räcker för att upptäcka att konsumenten halkar efter
+        long lag = oldestPending == null ? 0 : System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(oldestPending.getTime());
+        lagMillis.set(Math.max(0, lag));
+    }
+
+    /**
+     * Borttagningar innehåller bara _id, så användaren kan bara avgöras om MongoDB sparar en
+     * pre-image. Kräver MongoDB 6.0 eller senare.
+     */
+    private void enablePreImages() {
+        try {
+            mongoTemplate.executeCommand(new Document("collMod", mongoTemplate.getCollectionName(Event.class))
+                    .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+        } catch (DataAccessException e) {
+            logger.warn("Could not enable change stream pre-images, deletes will not update the read model: {}", e.getMessage());
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static Counter changeCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("kvitt.read-model.changes")
+                .description("Event changes seen by the change stream consumer")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * En användares ändringar i en batch, så att settlement vet om indexet kan användas.
+     */
+    private static final class UserChanges {
+
+        private boolean rebuilt;
+        private int count;
+        private Event before;
+        private Event after;
+
+        void add(Event before, Event after) {
+            count++;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * Eventens versioner när en användare byggdes om. En ändring är redan inräknad om eventet hade
+     * minst ändringens version vid ombyggnaden. Fanns eventet inte då har det antingen skapats efter
+     * ombyggnaden eller tagits bort före den; det senare gäller om strömmen inte har levererat att det skapats.
+     */
+    private static final class RebuiltUser {
+
+        private final Map<String, Long> versionsById;
+        private final Set<String> createdSince = new HashSet<>();
+
+        RebuiltUser(Map<String, Long> versionsById) {
+            this.versionsById = versionsById;
+        }
+
+        boolean alreadyCounted(Event before, Event after) {
+            String id = after != null ? after.getId() : before.getId();
+            Long versionAtRebuild = versionsById.get(id);
+            if (versionAtRebuild == null) {
+                if (before == null) {
+                    createdSince.add(id);
+                    return false;
+                }
+                return !createdSince.contains(id);
+            }
+            // En borttagning av ett event som fanns vid ombyggnaden har skett efter den
+            return after != null && version(after) <= versionAtRebuild;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package se.johan.kvitt.event.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import se.johan.kvitt.event.model.EventLedger;
+
+@Repository
+public interface EventLedgerRepository extends MongoRepository<EventLedger, String> {
+}
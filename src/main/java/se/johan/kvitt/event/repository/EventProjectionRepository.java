@@ -0,0 +1,17 @@
+package se.johan.kvitt.event.repository;
+
+import se.johan.kvitt.event.model.EventAmountView;
+
+import java.util.function.Consumer;
+
+/**
+ * Smala läsningar av events som inte går via Spring Datas entitetsmappning, se {@link EventProjectionRepositoryImpl}.
+ */
+public interface EventProjectionRepository {
+
+    /**
+     * Läser belopp, typ, betalstatus och datum för alla en användares events, ett i taget från cursorn.
+     * @return Antal lästa events.
+     */
+    long forEachAmountByUsername(String username, Consumer<EventAmountView> action);
+}
@@ -0,0 +1,80 @@
+package se.johan.kvitt.event.repository;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountView;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Läser bara de fält som behövs och bygger {@link EventAmountView} direkt från BSON-dokumentet,
+ * utan MappingMongoConverter. Ombyggnader av ledger och rollups läser alla en användares events,
+ * så både title på tråden och den reflektionsbaserade mappningen per dokument sparas in.
+ */
+public class EventProjectionRepositoryImpl implements EventProjectionRepository {
+
+    private static final Document AMOUNT_FIELDS = new Document("_id", 0)
+            .append("amount", 1)
+            .append("expense", 1)
+            .append("paid", 1)
+            .append("dateTime", 1);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public EventProjectionRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public long forEachAmountByUsername(String username, Consumer<EventAmountView> action) {
+        // execute översätter drivrutinens undantag till DataAccessException, som för repository-metoderna
+        return mongoTemplate.execute(Event.class, collection -> {
+            long count = 0;
+            try (MongoCursor<Document> cursor = collection.find(Filters.eq("username", username))
+                    .projection(AMOUNT_FIELDS)
+                    .iterator()) {
+                while (cursor.hasNext()) {
+                    action.accept(toAmountView(cursor.next()));
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private static EventAmountView toAmountView(Document document) {
+        return new EventAmountView(
+                toBigDecimal(document.get("amount")),
+                document.getBoolean("expense", false),
+                document.getBoolean("paid", false),
+                toLocalDateTime(document.getDate("dateTime"))
+        );
+    }
+
+    private static BigDecimal toBigDecimal(Object amount) {
+        if (amount instanceof Decimal128 decimal) {
+            return decimal.bigDecimalValue();
+        }
+        // Belopp som ännu inte migrerats (se EventAmountMigration) ligger kvar som strängar
+        return amount != null ? new BigDecimal(amount.toString()) : BigDecimal.ZERO;
+    }
+
+    /**
+     * Spring Data lagrar LocalDateTime som ett BSON-datum i systemets tidszon, så det läses tillbaka likadant.
+     */
+    private static LocalDateTime toLocalDateTime(Date date) {
+        return date != null ? LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()) : null;
+    }
+}
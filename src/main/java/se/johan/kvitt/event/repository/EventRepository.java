@@ -1,15 +1,66 @@
 package se.johan.kvitt.event.repository;
 
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountTotal;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface EventRepository extends MongoRepository<Event, String> {
+public interface EventRepository extends MongoRepository<Event, String>, EventProjectionRepository {
 
     List<Event> findByUsername(String username);
 
-    List<Event> findByUsernameAndExpenseTrueAndPaidFalseOrderByDateTimeAsc(String username);
-}
\ No newline at end of file
+    // Uppslagning på _id tillsammans med shard-nyckeln, så att bara en shard tillfrågas
+    Optional<Event> findByIdAndUsername(String id, String username);
+
+    // Borttagning villkorad på version, med shard-nyckeln i filtret. Returnerar antal borttagna.
+    long deleteByIdAndUsernameAndVersion(String id, String username, Long version);
+
+    // Obetalda utgifter i datumordning för settlement, med bara de fält som behövs för att betala dem
+    @Query(value = "{ username: ?0, expense: true, paid: false }",
+            fields = "{ amount: 1, expense: 1, paid: 1, dateTime: 1, username: 1, version: 1 }",
+            sort = "{ dateTime: 1 }")
+    List<Event> findUnpaidExpensesForSettlement(String username);
+
+    // Betalda eller obetalda utgifter via indexet (username, expense, paid, dateTime), utan username och version
+    @Query(value = "{ username: ?0, expense: true, paid: ?1 }",
+            fields = "{ title: 1, amount: 1, dateTime: 1 }",
+            sort = "{ dateTime: 1 }")
+    List<Event> findExpensesByPaid(String username, boolean paid);
+
+    // Alla utgifter i datumordning för settlement, utan title.
+    // paid: $in gör att sorteringen kan ske via indexet (username, expense, paid, dateTime).
+    @Query(value = "{ username: ?0, expense: true, paid: { $in: [ false, true ] } }",
+            fields = "{ amount: 1, expense: 1, paid: 1, dateTime: 1, username: 1, version: 1 }",
+            sort = "{ dateTime: 1 }")
+    List<Event> findExpensesForSettlement(String username);
+
+    // Första sidan vid keyset-paginering
+    List<Event> findByUsernameOrderByDateTimeAscIdAsc(String username, Limit limit);
+
+    // Nästa sida: allt efter (dateTime, _id) för det sista eventet på föregående sida
+    @Query(value = "{ username: ?0, $or: [ { dateTime: { $gt: ?1 } }, { dateTime: ?1, _id: { $gt: ?2 } } ] }",
+            sort = "{ dateTime: 1, _id: 1 }")
+    List<Event> findPageAfter(String username, LocalDateTime dateTime, ObjectId id, Limit limit);
+
+    // Läser events via en Mongo-cursor istället för att bygga upp hela listan i minnet. Måste stängas.
+    Stream<Event> streamByUsernameOrderByDateTimeAscIdAsc(String username);
+
+    // Summerar inkomster och utgifter i databasen istället för att hämta alla events.
+    // amount lagras som Decimal128 (se EventAmountMigration), så $sum kan användas direkt.
+    @Aggregation(pipeline = {
+            "{ $match: { username: ?0 } }",
+            "{ $group: { _id: '$expense', total: { $sum: '$amount' } } }",
+            "{ $project: { _id: 0, expense: '$_id', total: 1 } }"
+    })
+    List<EventAmountTotal> sumAmountsByExpense(String username);
+}
@@ -0,0 +1,18 @@
+package se.johan.kvitt.event.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+import se.johan.kvitt.event.model.EventRollup;
+import se.johan.kvitt.event.model.RollupGranularity;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface EventRollupRepository extends MongoRepository<EventRollup, String> {
+
+    // Inkluderar båda ändpunkterna och använder indexet username_granularity_period
+    @Query(value = "{ 'username': ?0, 'granularity': ?1, 'period': { $gte: ?2, $lte: ?3 } }", sort = "{ 'period': 1 }")
+    List<EventRollup> findRange(String username, RollupGranularity granularity, LocalDate from, LocalDate to);
+}
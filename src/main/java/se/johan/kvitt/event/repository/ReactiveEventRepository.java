@@ -0,0 +1,30 @@
+package se.johan.kvitt.event.repository;
+
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountTotal;
+
+// Används endast när applikationen körs reaktivt (profilen reactive). Annars är de reaktiva
+// Mongo-autokonfigurationerna undantagna (spring.autoconfigure.exclude i application.properties)
+// och repositoryt skapas inte.
+@Repository
+public interface ReactiveEventRepository extends ReactiveMongoRepository<Event, String> {
+
+    Flux<Event> findByUsernameOrderByDateTimeAscIdAsc(String username);
+
+    @Query(value = "{ username: ?0, expense: true, paid: ?1 }",
+            fields = "{ title: 1, amount: 1, dateTime: 1 }",
+            sort = "{ dateTime: 1 }")
+    Flux<Event> findExpensesByPaid(String username, boolean paid);
+
+    @Aggregation(pipeline = {
+            "{ $match: { username: ?0 } }",
+            "{ $group: { _id: '$expense', total: { $sum: '$amount' } } }",
+            "{ $project: { _id: 0, expense: '$_id', total: 1 } }"
+    })
+    Flux<EventAmountTotal> sumAmountsByExpense(String username);
+}
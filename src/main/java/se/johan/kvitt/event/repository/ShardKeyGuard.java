@@ -0,0 +1,137 @@
+package se.johan.kvitt.event.repository;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kontrollerar att kommandon mot shardade collections innehåller shard-nyckeln som likhetsvillkor.
+ * Ett kommando utan nyckeln kan inte routas till en shard utan skickas till alla (scatter-gather).
+ * Sådana kommandon loggas och räknas i {@code kvitt.mongo.untargeted}, så att de syns i tester och lasttester.
+ * Väntat oriktade är uppslagningen av alla användarnamn vid rebuildAll/resync samt migreringarna.
+ * Change streams kontrolleras inte.
+ */
+public class ShardKeyGuard implements CommandListener {
+
+    private final Map<String, String> shardKeysByCollection;
+    private final MeterRegistry meterRegistry;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * @param shardKeysByCollection Shard-nyckelns fält per collection som ska kontrolleras.
+     * @param meterRegistry Registry för räknaren, eller null om mätvärden inte används.
+     */
+    public ShardKeyGuard(Map<String, String> shardKeysByCollection, MeterRegistry meterRegistry) {
+        this.shardKeysByCollection = Map.copyOf(shardKeysByCollection);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String commandName = event.getCommandName();
+        BsonValue target = event.getCommand().get(commandName);
+        if (target == null || !target.isString()) {
+            return;
+        }
+
+        String collection = target.asString().getValue();
+        String shardKey = shardKeysByCollection.get(collection);
+        if (shardKey == null) {
+            return;
+        }
+
+        for (BsonDocument filter : filters(commandName, event.getCommand())) {
+            if (!targets(filter, shardKey)) {
+                untargeted(commandName, collection, filter);
+            }
+        }
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * Filtren som avgör vart ett kommando routas. Kommandon som inte routas på filter
+     * (t.ex. getMore, som följer sin cursor) ger en tom lista.
+     */
+    private static List<BsonDocument> filters(String commandName, BsonDocument command) {
+        return switch (commandName) {
+            case "find" -> List.of(document(command.get("filter")));
+            case "count", "distinct", "findAndModify" -> List.of(document(command.get("query")));
+            case "update" -> statementFilters(command.getArray("updates", new BsonArray()), "q");
+            case "delete" -> statementFilters(command.getArray("deletes", new BsonArray()), "q");
+            // Insert routas på dokumenten själva, som måste innehålla nyckeln
+            case "insert" -> statementFilters(command.getArray("documents", new BsonArray()), null);
+            case "aggregate" -> aggregateFilter(command.getArray("pipeline", new BsonArray()));
+            default -> List.of();
+        };
+    }
+
+    private static List<BsonDocument> statementFilters(BsonArray statements, String filterField) {
+        List<BsonDocument> filters = new ArrayList<>(statements.size());
+        for (BsonValue statement : statements) {
+            filters.add(filterField == null ? document(statement) : document(statement.asDocument().get(filterField)));
+        }
+        return filters;
+    }
+
+    private static List<BsonDocument> aggregateFilter(BsonArray pipeline) {
+        if (pipeline.isEmpty()) {
+            return List.of(new BsonDocument());
+        }
+
+        BsonDocument firstStage = pipeline.get(0).asDocument();
+        if (firstStage.containsKey("$changeStream")) {
+            return List.of();
+        }
+        // Bara en inledande $match kan användas för att välja shard
+        return List.of(firstStage.containsKey("$match") ? document(firstStage.get("$match")) : new BsonDocument());
+    }
+
+    /**
+     * Ett filter är riktat om shard-nyckeln jämförs med ett enda värde, direkt eller inuti en $and.
+     */
+    private static boolean targets(BsonDocument filter, String shardKey) {
+        BsonValue condition = filter.get(shardKey);
+        if (condition != null && (!condition.isDocument() || condition.asDocument().containsKey("$eq"))) {
+            return true;
+        }
+
+        BsonValue and = filter.get("$and");
+        if (and != null && and.isArray()) {
+            for (BsonValue clause : and.asArray()) {
+                if (clause.isDocument() && targets(clause.asDocument(), shardKey)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BsonDocument document(BsonValue value) {
+        return value != null && value.isDocument() ? value.asDocument() : new BsonDocument();
+    }
+
+    private void untargeted(String commandName, String collection, BsonDocument filter) {
+        // Bara fältnamnen loggas, inte värdena
+        logger.warn("Untargeted {} on sharded collection {} (filter fields: {})", commandName, collection, filter.keySet());
+
+        if (meterRegistry != null) {
+            Counter.builder("kvitt.mongo.untargeted")
+                    .description("Commands on sharded collections without an equality match on the shard key")
+                    .tag("command", commandName)
+                    .tag("collection", collection)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package se.johan.kvitt.event.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.response.EventImportErrorDTO;
+import se.johan.kvitt.event.dto.response.EventImportResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.objectMapper.EventMapper;
+import se.johan.kvitt.event.push.KvittPushService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Importerar många events på en gång. Raderna valideras och skrivs i chunks med
+ * oordnade bulk-inserts, och settlement körs en gång per berörd användare när allt är skrivet.
+ */
+@Service
+public class EventImportService {
+
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final EventMapper eventMapper;
+    private final EventLedgerService eventLedgerService;
+    private final EventRollupService eventRollupService;
+    private final EventSettlementEngine eventSettlementEngine;
+    private final UserWriteGuard userWriteGuard;
+    private final KvittPushService kvittPushService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final boolean readModelFromChangeStream;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventImportService(MongoTemplate mongoTemplate, EventMapper eventMapper, EventLedgerService eventLedgerService,
+                              EventRollupService eventRollupService, EventSettlementEngine eventSettlementEngine, UserWriteGuard userWriteGuard, KvittPushService kvittPushService, Validator validator,
+                              ObjectMapper objectMapper, @Value("${kvitt.import.chunk-size:1000}") int chunkSize,
+                              @Value("${kvitt.read-model.change-stream.enabled:false}") boolean readModelFromChangeStream) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventMapper = eventMapper;
+        this.eventLedgerService = eventLedgerService;
+        this.eventRollupService = eventRollupService;
+        this.eventSettlementEngine = eventSettlementEngine;
+        this.userWriteGuard = userWriteGuard;
+        this.kvittPushService = kvittPushService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.readModelFromChangeStream = readModelFromChangeStream;
+    }
+
+    /**
+     * Läser en JSON-array eller NDJSON (ett objekt per rad) strömmande från indata.
+     * En rad som är giltig JSON men inte går att läsa som ett event avvisas och importen fortsätter;
+     * trasig JSON avslutar importen med de rader som hunnit läsas.
+     */
+    public EventImportResponseDTO importJson(InputStream inputStream) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(CreateEventDto.class);
+        ImportRun run = new ImportRun();
+
+        // MappingIterator går igenom elementen i en JSON-array eller värdena i NDJSON utan att läsa in allt
+        long row = 1;
+        try (MappingIterator<CreateEventDto> rows = reader.readValues(inputStream)) {
+            for (; rows.hasNextValue(); row++) {
+                try {
+                    run.accept(row, rows.nextValue());
+                } catch (JsonMappingException e) {
+                    // Efter ett mappningsfel hoppar MappingIterator fram till nästa värde i nästa hasNextValue
+                    run.reject(row, "Invalid row: " + e.getOriginalMessage());
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Trasig JSON går inte att läsa vidare i
+            run.reject(row, "Malformed input: " + e.getOriginalMessage());
+        }
+
+        return run.finish();
+    }
+
+    /**
+     * Läser CSV med rubrikrad. Kolumnerna title, amount och username krävs, expense och paid är valfria.
+     */
+    public EventImportResponseDTO importCsv(InputStream inputStream) throws IOException {
+        ImportRun run = new ImportRun();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return run.finish();
+            }
+
+            Map<String, Integer> columns = new HashMap<>();
+            // Excel lägger ofta en BOM först i filen
+            List<String> headers = parseCsvLine(headerLine.replace("\uFEFF", ""));
+            for (int i = 0; i < headers.size(); i++) {
+                columns.put(headers.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+
+            if (!columns.keySet().containsAll(Set.of("title", "amount", "username"))) {
+                run.reject(1, "Header must contain title, amount and username");
+                return run.finish();
+            }
+
+            String line;
+            long row = 1;
+            while ((line = reader.readLine()) != null) {
+                row++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                try {
+                    List<String> values = parseCsvLine(line);
+                    String amount = csvValue(values, columns, "amount");
+                    run.accept(row, new CreateEventDto(
+                            csvValue(values, columns, "title"),
+                            amount == null || amount.isBlank() ? null : new BigDecimal(amount.trim()),
+                            Boolean.parseBoolean(csvValue(values, columns, "expense")),
+                            Boolean.parseBoolean(csvValue(values, columns, "paid")),
+                            csvValue(values, columns, "username")
+                    ));
+                } catch (NumberFormatException e) {
+                    run.reject(row, "Amount is not a number");
+                }
+            }
+        }
+
+        return run.finish();
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private static String csvValue(List<String> values, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= values.size()) {
+            return null;
+        }
+        return values.get(index);
+    }
+
+    /**
+     * Delar upp en CSV-rad på kommatecken. Fält inom citattecken får innehålla kommatecken,
+     * och "" inom ett citerat fält tolkas som ett citattecken.
+     */
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        values.add(current.toString());
+
+        return values;
+    }
+
+    /**
+     * Tillståndet för en pågående import: aktuell chunk, berörda användare och resultat.
+     */
+    private final class ImportRun {
+
+        private final List<Event> chunk = new ArrayList<>(chunkSize);
+        private final Set<String> affectedUsernames = new LinkedHashSet<>();
+        private final Set<String> ledgersToRebuild = new HashSet<>();
+        private final List<EventImportErrorDTO> errors = new ArrayList<>();
+        private long imported;
+        private long rejected;
+
+        void accept(long row, CreateEventDto dto) {
+            if (dto == null) {
+                reject(row, "Empty row");
+                return;
+            }
+
+            Set<ConstraintViolation<CreateEventDto>> violations = validator.validate(dto);
+            if (!violations.isEmpty()) {
+                reject(row, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", ")));
+                return;
+            }
+
+            Event event = eventMapper.toEntity(dto);
+            // Bulk-insert går förbi Spring Datas versionshantering, så startversionen sätts här
+            event.setVersion(0L);
+            chunk.add(event);
+
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void reject(long row, String message) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new EventImportErrorDTO(row, message));
+            }
+        }
+
+        EventImportResponseDTO finish() {
+            flush();
+
+            // I change stream-läget räknar konsumenten om de berörda användarna när insert-händelserna kommer
+            if (!readModelFromChangeStream) {
+                affectedUsernames.forEach(this::settle);
+            }
+
+            logger.info("Imported {} events for {} users ({} rejected)", imported, affectedUsernames.size(), rejected);
+            return new EventImportResponseDTO(imported, rejected, List.copyOf(errors));
+        }
+
+        private void settle(String username) {
+            userWriteGuard.withUserLock(username, () -> {
+                if (ledgersToRebuild.contains(username)) {
+                    eventLedgerService.rebuild(username);
+                    eventRollupService.rebuild(username);
+                    kvittPushService.publish(username, eventSettlementEngine.resettle(username));
+                } else {
+                    kvittPushService.publish(username, eventSettlementEngine.settleNewFunds(username));
+                }
+            });
+        }
+
+        private void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            Map<String, List<Event>> eventsByUsername = chunk.stream()
+                    .collect(Collectors.groupingBy(Event::getUsername));
+            affectedUsernames.addAll(eventsByUsername.keySet());
+
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Event.class)
+                        .insert(chunk)
+                        .execute();
+                imported += chunk.size();
+
+                if (!readModelFromChangeStream) {
+                    recordCreated(eventsByUsername);
+                }
+            } catch (BulkOperationException e) {
+                // Vissa rader kan ha skrivits, så ledgern och rollups byggs om från events istället för att räknas upp
+                int insertedCount = e.getResult().getInsertedCount();
+                imported += insertedCount;
+                rejected += chunk.size() - insertedCount;
+                ledgersToRebuild.addAll(eventsByUsername.keySet());
+                logger.error("Bulk insert partially failed: {} of {} events written", insertedCount, chunk.size());
+            }
+
+            chunk.clear();
+        }
+
+        /**
+         * Den oordnade bulk-inserten körs inte i en transaktion, eftersom en felaktig rad då skulle stoppa
+         * hela chunken. Misslyckas uppräkningen av ledger eller rollups byggs de istället om från events.
+         */
+        private void recordCreated(Map<String, List<Event>> eventsByUsername) {
+            eventsByUsername.forEach((username, events) -> {
+                try {
+                    eventLedgerService.recordCreated(username, events);
+                    eventRollupService.recordCreated(username, events);
+                } catch (RuntimeException e) {
+                    ledgersToRebuild.add(username);
+                    logger.error("Could not update ledger for user {} after import, rebuilding it instead", username, e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package se.johan.kvitt.event.service;
+
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.repository.EventLedgerRepository;
+import se.johan.kvitt.event.repository.EventRepository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+@Service
+public class EventLedgerService {
+
+    private final EventLedgerRepository eventLedgerRepository;
+    private final EventRepository eventRepository;
+    private final MongoTemplate mongoTemplate;
+    private final EventMetrics eventMetrics;
+    // I change stream-läget skapar bara EventChangeStreamConsumer ledgern, i takt med strömmen
+    private final boolean readModelFromChangeStream;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventLedgerService(EventLedgerRepository eventLedgerRepository, EventRepository eventRepository, MongoTemplate mongoTemplate, EventMetrics eventMetrics,
+                              @Value("${kvitt.read-model.change-stream.enabled:false}") boolean readModelFromChangeStream) {
+        this.eventLedgerRepository = eventLedgerRepository;
+        this.eventRepository = eventRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.eventMetrics = eventMetrics;
+        this.readModelFromChangeStream = readModelFromChangeStream;
+    }
+
+    public EventLedger getLedger(String username) {
+        return eventLedgerRepository.findById(username)
+                .orElseGet(() -> rebuildMissing(username));
+    }
+
+    public boolean exists(String username) {
+        return mongoTemplate.exists(query(where("username").is(username)), EventLedger.class);
+    }
+
+    public void recordCreated(Event event) {
+        LedgerDelta delta = new LedgerDelta();
+        delta.add(event, 1);
+        applyDelta(event.getUsername(), delta);
+    }
+
+    public void recordCreated(String username, Collection<Event> events) {
+        LedgerDelta delta = new LedgerDelta();
+        events.forEach(event -> delta.add(event, 1));
+        applyDelta(username, delta);
+    }
+
+    public void recordEdited(Event before, Event after) {
+        LedgerDelta delta = new LedgerDelta();
+        delta.add(before, -1);
+        delta.add(after, 1);
+        applyDelta(after.getUsername(), delta);
+    }
+
+    public void recordRemoved(Event event) {
+        LedgerDelta delta = new LedgerDelta();
+        delta.add(event, -1);
+        applyDelta(event.getUsername(), delta);
+    }
+
+    public void recordPaid(String username, List<Event> paidEvents) {
+        if (paidEvents.isEmpty()) {
+            return;
+        }
+
+        long paidAmount = 0;
+        LocalDateTime lastKvittDate = null;
+        for (Event event : paidEvents) {
+            paidAmount = Math.addExact(paidAmount, MinorUnits.of(event.getAmount()));
+            if (lastKvittDate == null || event.getDateTime().isAfter(lastKvittDate)) {
+                lastKvittDate = event.getDateTime();
+            }
+        }
+
+        Update update = new Update()
+                .inc("paidExpenseAmount", new Decimal128(MinorUnits.toAmount(paidAmount)))
+                .inc("unpaidCount", -paidEvents.size())
+                .max("lastKvittDate", lastKvittDate);
+
+        updateOrRebuild(username, update);
+    }
+
+    /**
+     * Skriver resultatet av en settlement till ledgern.
+     * @return Ledgerns nya revision.
+     */
+    public long recordSettlement(String username, SettlementPlan plan) {
+        Update update = new Update()
+                .set("paidExpenseAmount", new Decimal128(plan.paidExpenseAmount()))
+                .set("unpaidCount", plan.unpaidCount());
+
+        if (plan.lastKvittDate() != null) {
+            update.set("lastKvittDate", plan.lastKvittDate());
+        } else {
+            update.unset("lastKvittDate");
+        }
+
+        return updateOrRebuild(username, update);
+    }
+
+    /**
+     * Hämtar bara ledgerns revision, utan att läsa events. Saknas ledgern byggs den först.
+     */
+    public long getRevision(String username) {
+        Query query = query(where("username").is(username));
+        query.fields().include("revision");
+
+        EventLedger ledger = mongoTemplate.findOne(query, EventLedger.class);
+        return ledger != null ? ledger.getRevision() : rebuildMissing(username).getRevision();
+    }
+
+    public EventLedger rebuild(String username) {
+        EventLedger ledger = compute(username);
+        // En ny ledger börjar på aktuell tid så att en tidigare ETag för användaren inte kan matcha igen
+        ledger.setRevision(eventLedgerRepository.findById(username)
+                .map(existing -> existing.getRevision() + 1)
+                .orElseGet(System::currentTimeMillis));
+
+        EventLedger saved = eventLedgerRepository.save(ledger);
+        logger.info("Rebuilt ledger for user: {}", username);
+        return saved;
+    }
+
+    public void rebuildAll() {
+        List<String> usernames = mongoTemplate.findDistinct(new Query(), "username", Event.class, String.class);
+        logger.info("Rebuilding ledgers for {} users", usernames.size());
+
+        usernames.forEach(this::rebuild);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private EventLedger compute(String username) {
+        LedgerDelta totals = new LedgerDelta();
+        // Bara belopp, typ, betalstatus och datum läses, direkt från cursorn
+        long scanned = eventRepository.forEachAmountByUsername(username, event -> totals.add(event, 1));
+        eventMetrics.eventsScanned(EventMetrics.ScanOperation.LEDGER_REBUILD, scanned);
+        return totals.toLedger(username);
+    }
+
+    /**
+     * Bygger ledgern för en användare som saknar en. I change stream-läget sparas den inte, eftersom
+     * den då kan innehålla ändringar som strömmen inte levererat än och som konsumenten skulle räkna in
+     * en gång till; konsumenten skapar ledgern när den ser användarens första ändring.
+     */
+    private EventLedger rebuildMissing(String username) {
+        return readModelFromChangeStream ? compute(username) : rebuild(username);
+    }
+
+    private void applyDelta(String username, LedgerDelta delta) {
+        updateOrRebuild(username, delta.toUpdate());
+    }
+
+    /**
+     * Uppdaterar ledgern atomiskt och räknar upp dess revision. Saknas den (t.ex. för användare
+     * från innan ledgern fanns) byggs den istället upp från events, som då redan innehåller ändringen.
+     * @return Ledgerns nya revision.
+     */
+    private long updateOrRebuild(String username, Update update) {
+        update.inc("revision", 1);
+
+        Query query = query(where("username").is(username));
+        query.fields().include("revision");
+
+        EventLedger updated = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), EventLedger.class);
+        return updated != null ? updated.getRevision() : rebuildMissing(username).getRevision();
+    }
+}
@@ -0,0 +1,108 @@
+package se.johan.kvitt.event.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Samlar mätvärdena för events på ett ställe så att namn och taggar hålls konsekventa.
+ */
+@Component
+public class EventMetrics {
+
+    /**
+     * Operationerna som läser in alla events för en användare, med värdet för taggen operation.
+     */
+    public enum ScanOperation {
+        GET_ALL_EVENTS("getAllEvents"),
+        GET_PAID_EVENTS("getPaidEvents"),
+        GET_UNPAID_EVENTS("getUnPaidEvents"),
+        LEDGER_REBUILD("ledgerRebuild");
+
+        private final String tag;
+
+        ScanOperation(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Counter incrementalSettlementRuns;
+    private final Counter fullSettlementRuns;
+    private final Counter indexedSettlementRuns;
+    private final Counter eventsFlippedToPaid;
+    private final Counter eventsFlippedToUnpaid;
+    private final Map<ScanOperation, DistributionSummary> eventsScannedByOperation;
+
+    @Autowired
+    public EventMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.incrementalSettlementRuns = settlementRuns("incremental");
+        this.fullSettlementRuns = settlementRuns("full");
+        this.indexedSettlementRuns = settlementRuns("indexed");
+        this.eventsFlippedToPaid = eventsFlipped("paid");
+        this.eventsFlippedToUnpaid = eventsFlipped("unpaid");
+
+        // En mätare per operation registreras i förväg så att varje anrop bara är en uppslagning
+        this.eventsScannedByOperation = new EnumMap<>(ScanOperation.class);
+        for (ScanOperation operation : ScanOperation.values()) {
+            eventsScannedByOperation.put(operation, eventsScanned(operation));
+        }
+    }
+
+    public void incrementalSettlementRun() {
+        incrementalSettlementRuns.increment();
+    }
+
+    public void fullSettlementRun() {
+        fullSettlementRuns.increment();
+    }
+
+    public void indexedSettlementRun() {
+        indexedSettlementRuns.increment();
+    }
+
+    public void eventsFlipped(int toPaid, int toUnpaid) {
+        eventsFlippedToPaid.increment(toPaid);
+        eventsFlippedToUnpaid.increment(toUnpaid);
+    }
+
+    /**
+     * Registrerar hur många events en hämtning av en användares alla events gick igenom.
+     * @param operation Vilken operation som gjorde hämtningen, används som tagg.
+     * @param count Antal events som lästes.
+     */
+    public void eventsScanned(ScanOperation operation, long count) {
+        eventsScannedByOperation.get(operation).record(count);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private Counter settlementRuns(String mode) {
+        return Counter.builder("kvitt.settlement.runs")
+                .description("Settlement runs")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+
+    private Counter eventsFlipped(String status) {
+        return Counter.builder("kvitt.settlement.events.flipped")
+                .description("Expenses whose paid status was changed by settlement")
+                .tag("status", status)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary eventsScanned(ScanOperation operation) {
+        return DistributionSummary.builder("kvitt.events.scanned")
+                .description("Events read per user when all of a user's events are loaded")
+                .baseUnit("events")
+                .tag("operation", operation.tag)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
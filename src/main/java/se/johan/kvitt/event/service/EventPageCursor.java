@@ -0,0 +1,38 @@
+package se.johan.kvitt.event.service;
+
+import se.johan.kvitt.event.model.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Position i en användares events för keyset-paginering.
+ * Skickas till klienten som en opak base64-sträng.
+ */
+record EventPageCursor(LocalDateTime dateTime, String id) {
+
+    private static final String SEPARATOR = "|";
+
+    static EventPageCursor after(Event event) {
+        return new EventPageCursor(event.getDateTime(), event.getId());
+    }
+
+    static EventPageCursor decode(String cursor) {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separatorIndex = decoded.lastIndexOf(SEPARATOR);
+        if (separatorIndex < 0) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+
+        return new EventPageCursor(
+                LocalDateTime.parse(decoded.substring(0, separatorIndex)),
+                decoded.substring(separatorIndex + 1)
+        );
+    }
+
+    String encode() {
+        String raw = dateTime + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,260 @@
+package se.johan.kvitt.event.service;
+
+import org.bson.types.Decimal128;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import se.johan.kvitt.event.dto.response.EventRollupResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountView;
+import se.johan.kvitt.event.model.EventRollup;
+import se.johan.kvitt.event.model.RollupGranularity;
+import se.johan.kvitt.event.repository.EventRepository;
+import se.johan.kvitt.event.repository.EventRollupRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Håller dag- och månadssummor per användare i rollups-kollektionen.
+ * Varje skrivning av ett event ger en $inc-upsert per berörd period, och perioder
+ * utan events finns inte lagrade utan fylls ut med nollor vid läsning.
+ */
+@Service
+public class EventRollupService {
+
+    private static final int MAX_MONTHS = 120;
+    private static final int MAX_DAYS = 366;
+
+    private final EventRollupRepository eventRollupRepository;
+    private final EventRepository eventRepository;
+    private final MongoTemplate mongoTemplate;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventRollupService(EventRollupRepository eventRollupRepository, EventRepository eventRepository, MongoTemplate mongoTemplate) {
+        this.eventRollupRepository = eventRollupRepository;
+        this.eventRepository = eventRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public void recordCreated(Event event) {
+        RollupDeltas deltas = new RollupDeltas();
+        deltas.add(event, 1);
+        applyDeltas(event.getUsername(), deltas);
+    }
+
+    public void recordCreated(String username, Collection<Event> events) {
+        RollupDeltas deltas = new RollupDeltas();
+        events.forEach(event -> deltas.add(event, 1));
+        applyDeltas(username, deltas);
+    }
+
+    public void recordEdited(Event before, Event after) {
+        RollupDeltas deltas = new RollupDeltas();
+        deltas.add(before, -1);
+        deltas.add(after, 1);
+        applyDeltas(after.getUsername(), deltas);
+    }
+
+    public void recordRemoved(Event event) {
+        RollupDeltas deltas = new RollupDeltas();
+        deltas.add(event, -1);
+        applyDeltas(event.getUsername(), deltas);
+    }
+
+    /**
+     * Summor per månad för de senaste månaderna, inklusive innevarande månad.
+     * @param username Användaren.
+     * @param months Antal månader (1-120).
+     */
+    public List<EventRollupResponseDTO> getMonthlyTotals(String username, int months) {
+        int monthCount = Math.min(Math.max(months, 1), MAX_MONTHS);
+        LocalDate to = RollupGranularity.MONTH.periodOf(LocalDate.now());
+        LocalDate from = to.minusMonths(monthCount - 1);
+
+        return getTotals(username, RollupGranularity.MONTH, from, to);
+    }
+
+    /**
+     * Summor per dag mellan två datum, båda inkluderade.
+     * @param username Användaren.
+     * @param from Första dagen.
+     * @param to Sista dagen, högst 366 dagar efter första.
+     */
+    public List<EventRollupResponseDTO> getDailyTotals(String username, LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_DAYS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Range must not exceed " + MAX_DAYS + " days");
+        }
+
+        return getTotals(username, RollupGranularity.DAY, from, to);
+    }
+
+    /**
+     * Bygger om användarens rollups från events. Perioderna skrivs över med de nya summorna och
+     * perioder som inte längre har några events tas bort efteråt, så att en läsning under
+     * ombyggnaden aldrig ser användarens rollups tomma.
+     */
+    public void rebuild(String username) {
+        RollupDeltas totals = new RollupDeltas();
+        eventRepository.forEachAmountByUsername(username, event -> totals.add(event, 1));
+
+        writeDeltas(username, totals, RollupDelta::toReplacement);
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            mongoTemplate.remove(query(where("username").is(username)
+                    .and("granularity").is(granularity)
+                    .and("period").nin(totals.periods(granularity))), EventRollup.class);
+        }
+        logger.info("Rebuilt rollups for user: {}", username);
+    }
+
+    public void rebuildAll() {
+        List<String> usernames = mongoTemplate.findDistinct(new Query(), "username", Event.class, String.class);
+        logger.info("Rebuilding rollups for {} users", usernames.size());
+
+        usernames.forEach(this::rebuild);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private List<EventRollupResponseDTO> getTotals(String username, RollupGranularity granularity, LocalDate from, LocalDate to) {
+        Map<LocalDate, EventRollup> rollupsByPeriod = eventRollupRepository.findRange(username, granularity, from, to)
+                .stream()
+                .collect(Collectors.toMap(EventRollup::getPeriod, Function.identity()));
+
+        List<EventRollupResponseDTO> totals = new ArrayList<>();
+        for (LocalDate period = from; !period.isAfter(to); period = granularity.next(period)) {
+            EventRollup rollup = rollupsByPeriod.get(period);
+            BigDecimal totalIncome = rollup != null ? rollup.getTotalIncome() : BigDecimal.ZERO;
+            BigDecimal totalExpense = rollup != null ? rollup.getTotalExpense() : BigDecimal.ZERO;
+
+            totals.add(new EventRollupResponseDTO(
+                    period,
+                    totalIncome,
+                    totalExpense,
+                    totalIncome.subtract(totalExpense)
+            ));
+        }
+
+        return totals;
+    }
+
+    private void applyDeltas(String username, RollupDeltas deltas) {
+        writeDeltas(username, deltas, RollupDelta::toUpdate);
+    }
+
+    /**
+     * Skriver alla perioders förändringar i ett bulk-anrop. Perioder som inte finns skapas av upserten.
+     */
+    private void writeDeltas(String username, RollupDeltas deltas, Function<RollupDelta, Update> toUpdate) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, EventRollup.class);
+        deltas.forEach((key, delta) -> bulkOperations.upsert(
+                query(where("username").is(username)
+                        .and("granularity").is(key.granularity())
+                        .and("period").is(key.period())),
+                toUpdate.apply(delta)
+        ));
+        bulkOperations.execute();
+    }
+
+    private record PeriodKey(RollupGranularity granularity, LocalDate period) {
+    }
+
+    private static final class RollupDeltas {
+
+        private final Map<PeriodKey, RollupDelta> deltas = new HashMap<>();
+
+        void add(Event event, int sign) {
+            add(EventAmountView.of(event), sign);
+        }
+
+        void add(EventAmountView event, int sign) {
+            LocalDate date = event.dateTime().toLocalDate();
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                deltas.computeIfAbsent(new PeriodKey(granularity, granularity.periodOf(date)), key -> new RollupDelta())
+                        .add(event, sign);
+            }
+        }
+
+        boolean isEmpty() {
+            return deltas.isEmpty();
+        }
+
+        List<LocalDate> periods(RollupGranularity granularity) {
+            return deltas.keySet().stream()
+                    .filter(key -> key.granularity() == granularity)
+                    .map(PeriodKey::period)
+                    .toList();
+        }
+
+        void forEach(BiConsumer<PeriodKey, RollupDelta> action) {
+            deltas.forEach(action);
+        }
+    }
+
+    private static final class RollupDelta {
+
+        // Belopp i öre
+        private long totalIncome;
+        private long totalExpense;
+        private long incomeCount;
+        private long expenseCount;
+
+        void add(EventAmountView event, int sign) {
+            long amount = MinorUnits.of(event.amount());
+            if (sign < 0) {
+                amount = Math.negateExact(amount);
+            }
+
+            if (event.expense()) {
+                totalExpense = Math.addExact(totalExpense, amount);
+                expenseCount += sign;
+            } else {
+                totalIncome = Math.addExact(totalIncome, amount);
+                incomeCount += sign;
+            }
+        }
+
+        Update toUpdate() {
+            return new Update()
+                    .inc("totalIncome", new Decimal128(MinorUnits.toAmount(totalIncome)))
+                    .inc("totalExpense", new Decimal128(MinorUnits.toAmount(totalExpense)))
+                    .inc("incomeCount", incomeCount)
+                    .inc("expenseCount", expenseCount);
+        }
+
+        Update toReplacement() {
+            return new Update()
+                    .set("totalIncome", new Decimal128(MinorUnits.toAmount(totalIncome)))
+                    .set("totalExpense", new Decimal128(MinorUnits.toAmount(totalExpense)))
+                    .set("incomeCount", incomeCount)
+                    .set("expenseCount", expenseCount);
+        }
+    }
+}
@@ -1,91 +1,147 @@
 package se.johan.kvitt.event.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 import se.johan.kvitt.event.dto.request.CreateEventDto;
 import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.dto.response.EventColumnsResponseDTO;
 import se.johan.kvitt.event.dto.response.EventGetAllEventsByUsernameResponseDTO;
+import se.johan.kvitt.event.dto.response.EventPageResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.dto.response.ExpenseResponseDTO;
 import se.johan.kvitt.event.dto.response.KvittStatusResponseDTO;
 import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountTotal;
 import se.johan.kvitt.event.objectMapper.EventMapper;
+import se.johan.kvitt.event.push.KvittPushService;
 import se.johan.kvitt.event.repository.EventRepository;
-import se.johan.kvitt.kvittUser.repository.KvittUserRepository;
+import se.johan.kvitt.event.service.EventMetrics.ScanOperation;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 public class EventService {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final EventRepository eventRepository;
     private final EventMapper eventMapper;
-    private final KvittUserRepository kvittUserRepository;
+    private final EventLedgerService eventLedgerService;
+    private final EventRollupService eventRollupService;
+    private final EventSettlementEngine eventSettlementEngine;
+    private final UserWriteGuard userWriteGuard;
+    private final ObjectMapper objectMapper;
+    private final EventMetrics eventMetrics;
+    private final KvittPushService kvittPushService;
+    // När change stream-läget är på uppdateras ledger, rollups och betalstatus av EventChangeStreamConsumer
+    private final boolean readModelFromChangeStream;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    public EventService(EventRepository eventRepository, EventMapper eventMapper, KvittUserRepository kvittUserRepository) {
+    public EventService(EventRepository eventRepository, EventMapper eventMapper, EventLedgerService eventLedgerService, EventRollupService eventRollupService, EventSettlementEngine eventSettlementEngine, UserWriteGuard userWriteGuard, ObjectMapper objectMapper, EventMetrics eventMetrics, KvittPushService kvittPushService,
+                        @Value("${kvitt.read-model.change-stream.enabled:false}") boolean readModelFromChangeStream) {
         this.eventRepository = eventRepository;
         this.eventMapper = eventMapper;
-        this.kvittUserRepository = kvittUserRepository;
+        this.eventLedgerService = eventLedgerService;
+        this.eventRollupService = eventRollupService;
+        this.eventSettlementEngine = eventSettlementEngine;
+        this.userWriteGuard = userWriteGuard;
+        this.objectMapper = objectMapper;
+        this.eventMetrics = eventMetrics;
+        this.kvittPushService = kvittPushService;
+        this.readModelFromChangeStream = readModelFromChangeStream;
     }
 
     public Event createEvent(CreateEventDto dto) {
-        Event savedEvent = eventRepository.save(eventMapper.toEntity(dto));
-        logger.info("New Event created & saved: {}", savedEvent.getTitle());
-
-        calculateUnPaidEvents(savedEvent.getUsername());
-
-        return savedEvent;
-    }
-
-    public Event editEvent(EditEventDto dto) {
-        Optional<Event> editedEvent = eventRepository.findById(dto.id());
-        if (editedEvent.isPresent()) {
-            Event event = editedEvent.get();
-            event.setTitle(dto.title());
-            event.setAmount(dto.amount());
-            event.setExpense(dto.expense());
-            event.setDateTime(dto.dateTime());
-            eventRepository.save(event);
+        return userWriteGuard.withUserLock(dto.username(), () -> {
+            // Eventet och ledger/rollups skrivs i samma transaktion, settlement först när den är committad
+            Event savedEvent = userWriteGuard.inTransaction(() -> {
+                Event saved = eventRepository.save(eventMapper.toEntity(dto));
+                if (!readModelFromChangeStream) {
+                    eventLedgerService.recordCreated(saved);
+                    eventRollupService.recordCreated(saved);
+                }
+                return saved;
+            });
+            logger.info("New Event created & saved: {}", savedEvent.getTitle());
+
+            if (!readModelFromChangeStream) {
+                kvittPushService.publish(savedEvent.getUsername(), eventSettlementEngine.settleCreated(savedEvent));
+            }
 
-            rebootPaidStatus(event.getUsername());
-            calculateUnPaidEvents(event.getUsername());
-            getKvittStatus(event.getUsername());
-            return event;
-        }
-        return null;
+            return savedEvent;
+        });
     }
 
-    private void rebootPaidStatus(String username) {
-        List<Event> allEvents = eventRepository.findByUsername(username);
-        allEvents.stream()
-                .filter(Event::isExpense)
-                .forEach(event -> event.setPaid(false));
+    /**
+     * Ändrar ett av användarens events. Eventet slås upp på id och användarnamn,
+     * så att en användare bara kan ändra sina egna events och uppslagningen går till en shard.
+     * @return Det ändrade eventet, eller null om användaren inte har något event med id:t.
+     */
+    public Event editEvent(String username, EditEventDto dto) {
+        return userWriteGuard.withUserLock(username, () -> {
+            // Läser om eventet vid varje försök så att en versionskonflikt hanteras med färsk data
+            EditResult edit = userWriteGuard.retryOnConflict(() -> userWriteGuard.inTransaction(() ->
+                    eventRepository.findByIdAndUsername(dto.id(), username)
+                            .map(current -> applyEdit(current, dto))
+                            .orElse(null)));
+            if (edit == null) {
+                return null;
+            }
 
-        eventRepository.saveAll(allEvents);
+            if (!readModelFromChangeStream) {
+                kvittPushService.publish(username, eventSettlementEngine.settleEdited(edit.before(), edit.after()));
+            }
+            return edit.after();
+        });
     }
 
-    public void deleteEvent(String id) {
-        Optional<Event> eventOptional = eventRepository.findById(id);
-
-        if (eventOptional.isPresent()) {
-            String username = eventOptional.get().getUsername();
-
-            eventRepository.deleteById(id);
-            rebootPaidStatus(username);
-            calculateUnPaidEvents(username);
-        }
+    /**
+     * Tar bort ett av användarens events. Finns inget event med id:t för användaren händer ingenting.
+     */
+    public void deleteEvent(String username, String id) {
+        userWriteGuard.withUserLock(username, () -> {
+            Event removed = userWriteGuard.retryOnConflict(() -> userWriteGuard.inTransaction(() ->
+                    eventRepository.findByIdAndUsername(id, username)
+                            .map(current -> {
+                                delete(current);
+                                if (!readModelFromChangeStream) {
+                                    eventLedgerService.recordRemoved(current);
+                                    eventRollupService.recordRemoved(current);
+                                }
+                                return current;
+                            })
+                            .orElse(null)));
+
+            if (removed != null && !readModelFromChangeStream) {
+                kvittPushService.publish(username, eventSettlementEngine.settleRemoved(removed));
+            }
+        });
     }
 
     public List<EventGetAllEventsByUsernameResponseDTO> getAllEventsByUsername(String username) {
 
-        List<Event> events = eventRepository.findByUsername(username);
+        List<Event> events = findByUsername(username, ScanOperation.GET_ALL_EVENTS);
         logger.info("Found {} events for user: {}", events.size(), username);
 
         return events.stream()
@@ -93,107 +149,185 @@ public class EventService {
                 .toList();
     }
 
+    public EventPageResponseDTO getEventsPage(String username, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        // En extra rad hämtas för att veta om det finns en nästa sida
+        Limit fetchLimit = Limit.of(pageSize + 1);
+
+        List<Event> events;
+        if (cursor == null || cursor.isBlank()) {
+            events = eventRepository.findByUsernameOrderByDateTimeAscIdAsc(username, fetchLimit);
+        } else {
+            EventPageCursor position = decodeCursor(cursor);
+            events = eventRepository.findPageAfter(username, position.dateTime(), new ObjectId(position.id()), fetchLimit);
+        }
+
+        boolean hasMore = events.size() > pageSize;
+        List<Event> page = hasMore ? events.subList(0, pageSize) : events;
+        String nextCursor = hasMore ? EventPageCursor.after(page.get(page.size() - 1)).encode() : null;
+
+        return new EventPageResponseDTO(
+                page.stream()
+                        .map(eventMapper::toGetAllEventsByIdDTO)
+                        .toList(),
+                nextCursor
+        );
+    }
+
+    public void writeAllEventsAsNdjson(String username, OutputStream outputStream) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(EventGetAllEventsByUsernameResponseDTO.class)
+                .withRootValueSeparator("\n");
+
+        try (Stream<Event> events = eventRepository.streamByUsernameOrderByDateTimeAscIdAsc(username);
+             SequenceWriter sequenceWriter = writer.writeValues(outputStream)) {
+            Iterator<Event> iterator = events.iterator();
+            while (iterator.hasNext()) {
+                sequenceWriter.write(eventMapper.toGetAllEventsByIdDTO(iterator.next()));
+            }
+        }
+    }
+
     public BigDecimal getTotalIncome(String username) {
-        return eventRepository.findByUsername(username)
-                .stream()
-                .filter(event -> !event.isExpense())
-                .map(Event::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getSummary(username).totalIncome();
     }
 
     public BigDecimal getTotalExpense(String username) {
-        return eventRepository.findByUsername(username)
-                .stream()
-                .filter(Event::isExpense)
-                .map(Event::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getSummary(username).totalExpense();
     }
 
     public BigDecimal getFinancials(String username) {
-        BigDecimal totalIncome = getTotalIncome(username);
-        BigDecimal totalExpense = getTotalExpense(username);
+        return getSummary(username).financials();
+    }
 
-        return totalIncome.subtract(totalExpense);
+    public EventSummaryResponseDTO getSummary(String username) {
+        return toSummary(eventRepository.sumAmountsByExpense(username));
     }
 
-    public List<Event> getPaidEvents(String username) {
-        return eventRepository.findByUsername(username)
+    /**
+     * Slår ihop summeringens rader (en för inkomster, en för utgifter) till en sammanfattning.
+     * @param amountTotals Resultatet av {@code EventRepository#sumAmountsByExpense}; saknas en rad räknas den som noll.
+     */
+    public static EventSummaryResponseDTO toSummary(List<EventAmountTotal> amountTotals) {
+        BigDecimal totalIncome = BigDecimal.ZERO;
+        BigDecimal totalExpense = BigDecimal.ZERO;
+
+        for (EventAmountTotal amountTotal : amountTotals) {
+            if (amountTotal.expense()) {
+                totalExpense = amountTotal.total();
+            } else {
+                totalIncome = amountTotal.total();
+            }
+        }
+
+        return new EventSummaryResponseDTO(
+                totalIncome,
+                totalExpense,
+                totalIncome.subtract(totalExpense)
+        );
+    }
+
+    public List<ExpenseResponseDTO> getPaidEvents(String username) {
+        return findExpenses(username, true)
                 .stream()
-                .filter(Event::isExpense)
-                .filter(Event::isPaid)
+                .map(eventMapper::toExpenseDTO)
                 .toList();
     }
 
-    public List<Event> getUnPaidEvents(String username) {
-        return eventRepository.findByUsername(username)
+    public List<ExpenseResponseDTO> getUnPaidEvents(String username) {
+        return findExpenses(username, false)
                 .stream()
-                .filter(Event::isExpense)
-                .filter(event -> !event.isPaid())
+                .map(eventMapper::toExpenseDTO)
                 .toList();
     }
 
-    public KvittStatusResponseDTO getKvittStatus(String username) {
+    public EventColumnsResponseDTO getAllEventsAsColumns(String username) {
+        return eventMapper.toColumnsDTO(findByUsername(username, ScanOperation.GET_ALL_EVENTS), true);
+    }
 
+    public EventColumnsResponseDTO getExpensesAsColumns(String username, boolean paid) {
+        return eventMapper.toColumnsDTO(findExpenses(username, paid), false);
+    }
 
-        long expensesBack = eventRepository.findByUsername(username).stream()
-                .filter(Event::isExpense)
-                .filter(event -> !event.isPaid())
-                .count();
+    /**
+     * ETag för alla läs-endpoints för en användare. Ledgerns revision ändras vid varje skrivning,
+     * och dagens datum ingår eftersom kvitt-status och månadssummor beror på det.
+     */
+    public String getETag(String username) {
+        return toETag(eventLedgerService.getRevision(username));
+    }
 
-        LocalDate lastKvittDate = eventRepository.findByUsername(username).stream()
-                .filter(Event::isExpense)
-                .filter(Event::isPaid)
-                .map(event -> event.getDateTime().toLocalDate())
-                .max(Comparator.naturalOrder())
-                .orElse(LocalDate.now());
+    /**
+     * Bygger ETag:en från ledgerns revision. Datumet tas i serverns tidszon, samma zon som
+     * eventens dateTime sätts i (LocalDateTime.now()), så ETag:en byter dag samtidigt som
+     * månadssummorna och kvitt-status gör.
+     */
+    public static String toETag(long revision) {
+        return revision + "-" + LocalDate.now(ZoneId.systemDefault());
+    }
 
-        return new KvittStatusResponseDTO(
-                expensesBack,
-                lastKvittDate
-        );
+    public KvittStatusResponseDTO getKvittStatus(String username) {
+        // Ledgern håller redan antal obetalda utgifter och senaste kvitt-datum,
+        // så statusen kräver bara en uppslagning på _id istället för två skanningar av events.
+        return eventMapper.toKvittStatusDTO(eventLedgerService.getLedger(username));
     }
 
     // --- Privata Hjälpmetoder ---
 
-    private void calculateUnPaidEvents(String username) {
-        BigDecimal totalIncome = getTotalIncome(username);
-        BigDecimal alreadyPaidAmount = getTotalPaidExpensesAmount(username);
-        BigDecimal availableFunds = totalIncome.subtract(alreadyPaidAmount);
-
-        List<Event> unpaidExpenses = eventRepository.findByUsernameAndExpenseTrueAndPaidFalseOrderByDateTimeAsc(username);
+    private List<Event> findByUsername(String username, ScanOperation operation) {
+        List<Event> events = eventRepository.findByUsername(username);
+        eventMetrics.eventsScanned(operation, events.size());
+        return events;
+    }
 
-        logger.info("Calculating unpaid events. Available funds: {}", availableFunds);
+    private List<Event> findExpenses(String username, boolean paid) {
+        List<Event> expenses = eventRepository.findExpensesByPaid(username, paid);
+        eventMetrics.eventsScanned(paid ? ScanOperation.GET_PAID_EVENTS : ScanOperation.GET_UNPAID_EVENTS, expenses.size());
+        return expenses;
+    }
 
-        List<Event> updatedEvents = new ArrayList<>();
+    /**
+     * Tar bort eventet med shard-nyckeln i filtret. repository.delete(entity) kontrollerar versionen
+     * men filtrerar bara på _id, vilket i ett shardat kluster skickas till alla shards.
+     */
+    private void delete(Event event) {
+        long deleted = eventRepository.deleteByIdAndUsernameAndVersion(event.getId(), event.getUsername(), event.getVersion());
+        if (deleted == 0) {
+            throw new OptimisticLockingFailureException("Event " + event.getId() + " was changed or removed concurrently");
+        }
+    }
 
-        for (Event expense : unpaidExpenses) {
-            if (availableFunds.compareTo(expense.getAmount()) >= 0) {
-                expense.setPaid(true);
-                updatedEvents.add(expense);
+    private EditResult applyEdit(Event event, EditEventDto dto) {
+        Event before = new Event(event.getId(), event.getTitle(), event.getAmount(), event.isExpense(),
+                event.getDateTime(), event.isPaid(), event.getUsername());
+
+        event.setTitle(dto.title());
+        event.setAmount(dto.amount());
+        event.setExpense(dto.expense());
+        event.setDateTime(dto.dateTime());
+        Event saved = eventRepository.save(event);
+        if (!readModelFromChangeStream) {
+            eventLedgerService.recordEdited(before, saved);
+            eventRollupService.recordEdited(before, saved);
+        }
 
-                availableFunds = availableFunds.subtract(expense.getAmount());
+        return new EditResult(before, saved);
+    }
 
-                logger.debug("Marked expense '{}' ({}) as PAID.", expense.getTitle(), expense.getAmount());
-            } else {
-                // Pengarna räcker inte till nästa utgift
-                break;
+    private EventPageCursor decodeCursor(String cursor) {
+        try {
+            EventPageCursor position = EventPageCursor.decode(cursor);
+            if (!ObjectId.isValid(position.id())) {
+                throw new IllegalArgumentException("Malformed cursor id");
             }
-        }
-
-        if (!updatedEvents.isEmpty()) {
-            eventRepository.saveAll(updatedEvents);
-            logger.info("Updated {} events to PAID status.", updatedEvents.size());
+            return position;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
         }
     }
 
-    private BigDecimal getTotalPaidExpensesAmount(String username) {
-        return eventRepository.findByUsername(username)
-                .stream()
-                .filter(Event::isExpense)
-                .filter(Event::isPaid)
-                .map(Event::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    /**
+     * Eventet före och efter en ändring, så att settlement kan flytta det i indexet.
+     */
+    private record EditResult(Event before, Event after) {
     }
-
-
 }
\ No newline at end of file
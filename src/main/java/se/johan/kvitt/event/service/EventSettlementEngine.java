@@ -0,0 +1,326 @@
+package se.johan.kvitt.event.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.repository.EventRepository;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Avgör vilka utgifter som är betalda. Utgifterna betalas i datumordning så länge
+ * inkomsterna räcker; första utgiften som inte ryms stoppar betalningen.
+ * Efter en fullständig omräkning sparas användarens utgifter i ett {@link SettlementIndex},
+ * så att nästa skapande, ändring eller borttagning kan räknas om utan att läsa alla utgifter.
+ */
+@Service
+public class EventSettlementEngine {
+
+    /**
+     * Ordningen utgifterna betalas i. Utgifter med samma tidpunkt ordnas på id så att
+     * den fullständiga omräkningen och indexet alltid kommer fram till samma resultat.
+     */
+    public static final Comparator<Event> SETTLEMENT_ORDER = Comparator
+            .comparing(Event::getDateTime)
+            .thenComparing(Event::getId);
+
+    private final EventRepository eventRepository;
+    private final EventLedgerService eventLedgerService;
+    private final MongoTemplate mongoTemplate;
+    private final UserWriteGuard userWriteGuard;
+    private final EventMetrics eventMetrics;
+    // Ändras bara under användarens skrivlås
+    private final Cache<String, SettlementIndex> settlementIndexes;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public EventSettlementEngine(EventRepository eventRepository, EventLedgerService eventLedgerService, MongoTemplate mongoTemplate, UserWriteGuard userWriteGuard, EventMetrics eventMetrics,
+                                 ObjectProvider<MeterRegistry> meterRegistry,
+                                 @Value("${kvitt.settlement.index.max-expenses:500000}") long maxIndexedExpenses,
+                                 @Value("${kvitt.settlement.index.expire-after-access:30m}") Duration expireAfterAccess) {
+        this.eventRepository = eventRepository;
+        this.eventLedgerService = eventLedgerService;
+        this.mongoTemplate = mongoTemplate;
+        this.userWriteGuard = userWriteGuard;
+        this.eventMetrics = eventMetrics;
+        // Vägs på antal utgifter så att minnet begränsas oavsett hur utgifterna fördelas mellan användare
+        this.settlementIndexes = Caffeine.newBuilder()
+                .maximumWeight(maxIndexedExpenses)
+                .weigher((String username, SettlementIndex index) -> Math.max(1, index.size()))
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, settlementIndexes, "settlementIndexes"));
+    }
+
+    /**
+     * Betalar obetalda utgifter med de pengar som finns kvar. Används efter att ett event skapats,
+     * då redan betalda utgifter inte påverkas.
+     * Krockar den med en samtidig skrivning görs en fullständig omräkning istället.
+     * @return De utgifter som blev betalda.
+     */
+    public SettlementChanges settleNewFunds(String username) {
+        try {
+            return doSettleNewFunds(username);
+        } catch (OptimisticLockingFailureException e) {
+            logger.warn("Incremental settlement for user {} conflicted, resettling: {}", username, e.getMessage());
+            return resettle(username);
+        }
+    }
+
+    /**
+     * Räknar om betalstatus för alla utgifter efter en ändring eller borttagning.
+     * Endast utgifter vars status faktiskt ändras skrivs, i ett enda bulk-anrop.
+     * @return De utgifter som bytte betalstatus.
+     */
+    public SettlementChanges resettle(String username) {
+        return userWriteGuard.retryOnConflict(() -> doResettle(username));
+    }
+
+    /**
+     * Räknar om betalstatus efter att ett event skapats och registrerats i ledgern.
+     * Anropas under användarens skrivlås.
+     */
+    public SettlementChanges settleCreated(Event created) {
+        return settleIndexed(created.getUsername(), index -> {
+            if (created.isExpense()) {
+                index.insert(created);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Räknar om betalstatus efter att ett event ändrats och ändringen registrerats i ledgern.
+     * Anropas under användarens skrivlås.
+     * @param before Eventet som det låg i databasen innan ändringen.
+     * @param after Eventet som det sparades.
+     */
+    public SettlementChanges settleEdited(Event before, Event after) {
+        return settleIndexed(after.getUsername(), index -> index.replace(before, after));
+    }
+
+    /**
+     * Räknar om betalstatus efter att ett event tagits bort och borttagningen registrerats i ledgern.
+     * Anropas under användarens skrivlås.
+     */
+    public SettlementChanges settleRemoved(Event removed) {
+        return settleIndexed(removed.getUsername(), index -> !removed.isExpense() || index.remove(removed));
+    }
+
+    private SettlementChanges doSettleNewFunds(String username) {
+        // Flaggorna skrivs här utan indexet, så det byggs om vid nästa fullständiga omräkning
+        settlementIndexes.invalidate(username);
+
+        EventLedger ledger = eventLedgerService.getLedger(username);
+        if (ledger.getUnpaidCount() == 0) {
+            return SettlementChanges.NONE;
+        }
+
+        eventMetrics.incrementalSettlementRun();
+
+        long availableFunds = MinorUnits.of(ledger.getAvailableFunds());
+
+        List<Event> unpaidExpenses = eventRepository.findUnpaidExpensesForSettlement(username);
+
+        logger.info("Calculating unpaid events. Available funds: {}", ledger.getAvailableFunds());
+
+        List<Event> updatedEvents = new ArrayList<>();
+
+        for (Event expense : unpaidExpenses) {
+            long amount = MinorUnits.of(expense.getAmount());
+            if (availableFunds >= amount) {
+                updatedEvents.add(expense);
+
+                availableFunds -= amount;
+
+                logger.debug("Marked expense {} ({}) as PAID.", expense.getId(), expense.getAmount());
+            } else {
+                // Pengarna räcker inte till nästa utgift
+                break;
+            }
+        }
+
+        if (updatedEvents.isEmpty()) {
+            return SettlementChanges.NONE;
+        }
+
+        writePaidFlags(username, updatedEvents, List.of());
+        eventLedgerService.recordPaid(username, updatedEvents);
+        eventMetrics.eventsFlipped(updatedEvents.size(), 0);
+        logger.info("Updated {} events to PAID status.", updatedEvents.size());
+
+        return SettlementChanges.of(updatedEvents, List.of());
+    }
+
+    private SettlementChanges doResettle(String username) {
+        settlementIndexes.invalidate(username);
+
+        eventMetrics.fullSettlementRun();
+        EventLedger ledger = eventLedgerService.getLedger(username);
+        List<Event> expenses = eventRepository.findExpensesForSettlement(username);
+        // Databasen sorterar bara på dateTime (via indexet), så ordningen mellan lika tidpunkter bestäms här
+        expenses.sort(SETTLEMENT_ORDER);
+
+        SettlementPlan plan = plan(expenses, ledger.getTotalIncome());
+
+        if (plan.hasChanges()) {
+            writePaidFlags(username, plan.toPay(), plan.toUnpay());
+            eventMetrics.eventsFlipped(plan.toPay().size(), plan.toUnpay().size());
+            logger.info("Settlement for user {}: {} events to PAID, {} events to UNPAID.",
+                    username, plan.toPay().size(), plan.toUnpay().size());
+        }
+
+        SettlementChanges changes = SettlementChanges.of(plan.toPay(), plan.toUnpay());
+        long revision = eventLedgerService.recordSettlement(username, plan);
+        cacheIndex(username, expenses, plan, revision);
+        return changes;
+    }
+
+    /**
+     * Låter indexet följa med en ändring och räknar om betalstatus från det.
+     * Indexet används bara om ledgern har ändrats exakt en gång sedan indexet senast stämde, dvs.
+     * av den skrivning som anropet gäller; annars (eller om indexet inte känner igen eventet)
+     * görs en fullständig omräkning, som också bygger ett nytt index.
+     * @param mutation Uppdaterar indexet, returnerar false om det inte stämmer med databasen.
+     */
+    private SettlementChanges settleIndexed(String username, Predicate<SettlementIndex> mutation) {
+        EventLedger ledger = eventLedgerService.getLedger(username);
+        // Indexet tas ur cachen medan det ändras så att ett misslyckat försök inte lämnar kvar ett halvt uppdaterat index
+        SettlementIndex index = settlementIndexes.asMap().remove(username);
+        if (index == null || ledger.getRevision() != index.revision() + 1 || !mutation.test(index)) {
+            return resettle(username);
+        }
+
+        eventMetrics.indexedSettlementRun();
+        SettlementPlan plan = index.settle(ledger.getTotalIncome());
+
+        if (plan.hasChanges()) {
+            try {
+                writePaidFlags(username, plan.toPay(), plan.toUnpay());
+            } catch (OptimisticLockingFailureException e) {
+                logger.warn("Indexed settlement for user {} conflicted, resettling: {}", username, e.getMessage());
+                return resettle(username);
+            }
+            eventMetrics.eventsFlipped(plan.toPay().size(), plan.toUnpay().size());
+            logger.info("Settlement for user {}: {} events to PAID, {} events to UNPAID.",
+                    username, plan.toPay().size(), plan.toUnpay().size());
+        }
+
+        index.setRevision(eventLedgerService.recordSettlement(username, plan));
+        settlementIndexes.put(username, index);
+        return SettlementChanges.of(plan.toPay(), plan.toUnpay());
+    }
+
+    /**
+     * Beräknar ny betalstatus i minnet och jämför med nuvarande status.
+     * @param expensesInOrder Användarens utgifter sorterade på dateTime.
+     * @param totalIncome Användarens totala inkomst.
+     */
+    public static SettlementPlan plan(List<Event> expensesInOrder, BigDecimal totalIncome) {
+        // Beräkningen görs i öre; överskrids long kastar Math.*Exact ArithmeticException
+        long availableFunds = MinorUnits.of(totalIncome);
+        boolean fundsExhausted = false;
+
+        List<Event> toPay = new ArrayList<>();
+        List<Event> toUnpay = new ArrayList<>();
+        long paidExpenseAmount = 0;
+        long unpaidCount = 0;
+        LocalDateTime lastKvittDate = null;
+
+        for (Event expense : expensesInOrder) {
+            long amount = MinorUnits.of(expense.getAmount());
+            boolean shouldBePaid = !fundsExhausted && availableFunds >= amount;
+
+            if (shouldBePaid) {
+                availableFunds -= amount;
+                paidExpenseAmount = Math.addExact(paidExpenseAmount, amount);
+                lastKvittDate = expense.getDateTime();
+            } else {
+                fundsExhausted = true;
+                unpaidCount++;
+            }
+
+            if (shouldBePaid && !expense.isPaid()) {
+                toPay.add(expense);
+            } else if (!shouldBePaid && expense.isPaid()) {
+                toUnpay.add(expense);
+            }
+        }
+
+        return new SettlementPlan(toPay, toUnpay, MinorUnits.toAmount(paidExpenseAmount), unpaidCount, lastKvittDate);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * Sparar utgifterna som index med den betalstatus och version de fick av planen.
+     */
+    private void cacheIndex(String username, List<Event> expensesInOrder, SettlementPlan plan, long revision) {
+        plan.toPay().forEach(event -> markWritten(event, true));
+        plan.toUnpay().forEach(event -> markWritten(event, false));
+
+        settlementIndexes.put(username, SettlementIndex.of(username, expensesInOrder, revision));
+    }
+
+    private void markWritten(Event event, boolean paid) {
+        event.setPaid(paid);
+        // $inc på ett saknat versionsfält ger 1
+        event.setVersion(event.getVersion() == null ? 1L : event.getVersion() + 1);
+    }
+
+    /**
+     * Varje uppdatering villkoras på eventets version. Har något event ändrats sedan det lästes
+     * kastas OptimisticLockingFailureException så att beräkningen kan göras om på färsk data.
+     */
+    private void writePaidFlags(String username, List<Event> toPay, List<Event> toUnpay) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Event.class);
+
+        toPay.forEach(event -> bulkOperations.updateOne(versionedQuery(username, event), paidUpdate(true)));
+        toUnpay.forEach(event -> bulkOperations.updateOne(versionedQuery(username, event), paidUpdate(false)));
+
+        int expected = toPay.size() + toUnpay.size();
+        int matched = bulkOperations.execute().getMatchedCount();
+        if (matched != expected) {
+            throw new OptimisticLockingFailureException(
+                    "Paid flags for user " + username + " changed concurrently (" + matched + "/" + expected + " matched)");
+        }
+    }
+
+    /**
+     * Användarnamnet är shard-nyckeln, så varje uppdatering går bara till användarens shard.
+     */
+    private Query versionedQuery(String username, Event event) {
+        return query(where("id").is(event.getId()).and("username").is(username).and("version").is(event.getVersion()));
+    }
+
+    private Update paidUpdate(boolean paid) {
+        return new Update()
+                .set("paid", paid)
+                .inc("version", 1);
+    }
+}
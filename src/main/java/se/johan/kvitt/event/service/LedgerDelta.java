@@ -0,0 +1,78 @@
+package se.johan.kvitt.event.service;
+
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.query.Update;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventAmountView;
+import se.johan.kvitt.event.model.EventLedger;
+
+import java.time.LocalDateTime;
+
+/**
+ * Inkomster, utgifter och betalstatus för en mängd events, som ändring av en ledger eller som en hel ledger
+ * vid ombyggnad. Summerar i öre, så att summorna vid en ombyggnad över alla events hålls i primitiva long.
+ * Används av EventLedgerService; publik så att ombyggnadens summering kan mätas i benchmarks.
+ */
+public final class LedgerDelta {
+
+    private long totalIncome;
+    private long totalExpense;
+    private long paidExpenseAmount;
+    private long expenseCount;
+    private long unpaidCount;
+    private LocalDateTime lastKvittDate;
+
+    public void add(Event event, int sign) {
+        add(EventAmountView.of(event), sign);
+    }
+
+    public void add(EventAmountView event, int sign) {
+        long amount = MinorUnits.of(event.amount());
+        if (sign < 0) {
+            amount = Math.negateExact(amount);
+        }
+
+        if (!event.expense()) {
+            totalIncome = Math.addExact(totalIncome, amount);
+            return;
+        }
+
+        totalExpense = Math.addExact(totalExpense, amount);
+        expenseCount += sign;
+
+        if (event.paid()) {
+            paidExpenseAmount = Math.addExact(paidExpenseAmount, amount);
+            if (sign > 0 && (lastKvittDate == null || event.dateTime().isAfter(lastKvittDate))) {
+                lastKvittDate = event.dateTime();
+            }
+        } else {
+            unpaidCount += sign;
+        }
+    }
+
+    public Update toUpdate() {
+        Update update = new Update()
+                .inc("totalIncome", new Decimal128(MinorUnits.toAmount(totalIncome)))
+                .inc("totalExpense", new Decimal128(MinorUnits.toAmount(totalExpense)))
+                .inc("paidExpenseAmount", new Decimal128(MinorUnits.toAmount(paidExpenseAmount)))
+                .inc("expenseCount", expenseCount)
+                .inc("unpaidCount", unpaidCount);
+
+        if (lastKvittDate != null) {
+            update.max("lastKvittDate", lastKvittDate);
+        }
+        return update;
+    }
+
+    public EventLedger toLedger(String username) {
+        return new EventLedger(
+                username,
+                MinorUnits.toAmount(totalIncome),
+                MinorUnits.toAmount(totalExpense),
+                MinorUnits.toAmount(paidExpenseAmount),
+                expenseCount,
+                unpaidCount,
+                lastKvittDate
+        );
+    }
+}
@@ -0,0 +1,32 @@
+package se.johan.kvitt.event.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Omvandling mellan belopp i kronor (BigDecimal) och öre (long).
+ * Summeringar och settlement räknar i öre så att varje steg är en primitiv addition
+ * istället för ett nytt BigDecimal-objekt. Överskridande av long ger ArithmeticException.
+ * Belopp med fler än två decimaler (äldre data från innan valideringen) avrundas till närmaste öre
+ * med bankavrundning (HALF_EVEN), samma regel som $round i EventAmountMigration använder.
+ */
+final class MinorUnits {
+
+    /** Antal decimaler i valutan, dvs. öre. */
+    static final int SCALE = 2;
+    static final RoundingMode ROUNDING = RoundingMode.HALF_EVEN;
+
+    private MinorUnits() {
+    }
+
+    /**
+     * @throws ArithmeticException Om beloppet inte ryms i en long.
+     */
+    static long of(BigDecimal amount) {
+        return amount.setScale(SCALE, ROUNDING).unscaledValue().longValueExact();
+    }
+
+    static BigDecimal toAmount(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+}
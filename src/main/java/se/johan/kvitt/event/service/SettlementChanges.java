@@ -0,0 +1,23 @@
+package se.johan.kvitt.event.service;
+
+import se.johan.kvitt.event.model.Event;
+
+import java.util.List;
+
+/**
+ * Vilka utgifter en settlement-körning faktiskt flyttade till betald respektive obetald.
+ */
+public record SettlementChanges(
+        List<String> paidEventIds,
+        List<String> unpaidEventIds
+) {
+
+    public static final SettlementChanges NONE = new SettlementChanges(List.of(), List.of());
+
+    static SettlementChanges of(List<Event> toPay, List<Event> toUnpay) {
+        return new SettlementChanges(
+                toPay.stream().map(Event::getId).toList(),
+                toUnpay.stream().map(Event::getId).toList()
+        );
+    }
+}
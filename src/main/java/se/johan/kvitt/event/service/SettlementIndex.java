@@ -0,0 +1,322 @@
+package se.johan.kvitt.event.service;
+
+import se.johan.kvitt.event.model.Event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * En användares utgifter i settlement-ordning (dateTime, id) med ett Fenwick-träd över beloppen i öre.
+ * De betalda utgifterna är alltid de första i ordningen, så gränsen mellan betalt och obetalt hittas
+ * genom att gå ner i trädet (O(log n)) istället för att summera hela listan, och bara utgifterna
+ * mellan den gamla och den nya gränsen behöver skrivas om.
+ * Ändras bara av EventSettlementEngine under användarens skrivlås och är i övrigt inte trådsäker.
+ */
+public final class SettlementIndex {
+
+    private static final int MIN_CAPACITY = 16;
+    // Events från innan versionshanteringen fanns saknar versionsfältet
+    private static final long NO_VERSION = -1;
+
+    private final String username;
+    private String[] ids;
+    private LocalDateTime[] dateTimes;
+    private long[] versions;
+    private long[] amounts;
+    private boolean[] paid;
+    // 1-indexerat: tree[i] är summan av amounts över positionerna (i - lowbit(i), i]
+    private long[] tree;
+    private int size;
+    // Antal betalda utgifter, utom den på position touched; de ligger först i ordningen
+    private int paidCount;
+    // En utgift som lagts till sedan senaste settle och vars paid-flagga inte följer ordningen än, annars -1
+    private int touched = -1;
+    private long revision;
+
+    private SettlementIndex(String username, int capacity) {
+        this.username = username;
+        this.ids = new String[capacity];
+        this.dateTimes = new LocalDateTime[capacity];
+        this.versions = new long[capacity];
+        this.amounts = new long[capacity];
+        this.paid = new boolean[capacity];
+        this.tree = new long[capacity + 1];
+    }
+
+    /**
+     * Bygger indexet från en användares utgifter efter en fullständig settlement.
+     * @param expensesInOrder Utgifterna sorterade med {@link EventSettlementEngine#SETTLEMENT_ORDER}, med aktuell paid och version.
+     * @param revision Ledgerns revision efter settlement.
+     * @throws IllegalArgumentException Om en betald utgift kommer efter en obetald.
+     */
+    public static SettlementIndex of(String username, List<Event> expensesInOrder, long revision) {
+        SettlementIndex index = new SettlementIndex(username, Math.max(MIN_CAPACITY, expensesInOrder.size()));
+        for (Event expense : expensesInOrder) {
+            int position = index.size++;
+            index.set(position, expense);
+            if (expense.isPaid()) {
+                if (index.paidCount != position) {
+                    throw new IllegalArgumentException("Paid expenses must come first");
+                }
+                index.paidCount++;
+            }
+        }
+        index.rebuildTree();
+        index.revision = revision;
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long revision() {
+        return revision;
+    }
+
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+
+    /**
+     * Lägger till en ny utgift. Nya utgifter hamnar oftast sist, vilket kostar O(log n);
+     * mitt i listan flyttas resten ett steg och trädet byggs om (O(n), men bara arraykopiering).
+     */
+    public void insert(Event expense) {
+        if (touched >= 0) {
+            throw new IllegalStateException("settle must be called between inserts");
+        }
+        ensureCapacity(size + 1);
+
+        int position = insertionPoint(storedDateTime(expense), expense.getId());
+        if (position == size) {
+            set(size++, expense);
+            appendToTree();
+        } else {
+            shift(position, position + 1, size - position);
+            size++;
+            set(position, expense);
+            rebuildTree();
+        }
+        touched = position;
+    }
+
+    /**
+     * Tar bort en utgift.
+     * @return false om utgiften inte finns i indexet, t.ex. för att det inte längre stämmer med databasen.
+     */
+    public boolean remove(Event expense) {
+        int position = indexOf(expense);
+        if (position < 0 || touched >= 0) {
+            return false;
+        }
+
+        if (paid[position]) {
+            paidCount--;
+        }
+        size--;
+        if (position < size) {
+            shift(position + 1, position, size - position);
+            rebuildTree();
+        }
+        // Sista positionen ingår inte i någon annan nods summa, så trädet behöver inte ändras
+        ids[size] = null;
+        dateTimes[size] = null;
+        return true;
+    }
+
+    /**
+     * Ersätter ett event efter en ändring. Ändras bara beloppet uppdateras trädet på O(log n).
+     * @return false om indexet inte stämmer med databasen.
+     */
+    public boolean replace(Event before, Event after) {
+        if (before.isExpense() && after.isExpense() && storedDateTime(before).equals(storedDateTime(after))) {
+            int position = indexOf(before);
+            if (position < 0) {
+                return false;
+            }
+            long amount = MinorUnits.of(after.getAmount());
+            addToTree(position, amount - amounts[position]);
+            amounts[position] = amount;
+            versions[position] = after.getVersion() != null ? after.getVersion() : NO_VERSION;
+            return true;
+        }
+
+        if (before.isExpense() && !remove(before)) {
+            return false;
+        }
+        if (after.isExpense()) {
+            insert(after);
+        }
+        return true;
+    }
+
+    /**
+     * Flyttar gränsen mellan betalt och obetalt till det som inkomsterna räcker till och uppdaterar
+     * paid och version i indexet för de utgifter som byter status.
+     * @param totalIncome Användarens totala inkomst.
+     * @return De utgifter som ska skrivas om samt ledgerns nya värden, som från {@link EventSettlementEngine#plan}.
+     */
+    public SettlementPlan settle(BigDecimal totalIncome) {
+        int frontier = frontier(MinorUnits.of(totalIncome));
+        // Var de betalda utgifterna (utom touched) slutar just nu
+        int boundary = touched >= 0 && touched < paidCount ? paidCount + 1 : paidCount;
+
+        List<Event> toPay = new ArrayList<>();
+        List<Event> toUnpay = new ArrayList<>();
+        for (int i = Math.min(boundary, frontier); i < Math.max(boundary, frontier); i++) {
+            if (i != touched) {
+                flip(i, i < frontier, toPay, toUnpay);
+            }
+        }
+        if (touched >= 0) {
+            flip(touched, touched < frontier, toPay, toUnpay);
+        }
+
+        paidCount = frontier;
+        touched = -1;
+
+        return new SettlementPlan(
+                toPay,
+                toUnpay,
+                MinorUnits.toAmount(prefixSum(frontier)),
+                size - frontier,
+                frontier > 0 ? dateTimes[frontier - 1] : null
+        );
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * Antal utgifter från början som ryms i totalIncome, hittat genom att gå ner i trädet.
+     * Fungerar eftersom alla belopp är positiva, så prefixsummorna växer.
+     */
+    private int frontier(long totalIncome) {
+        int position = 0;
+        long remaining = totalIncome;
+        for (int step = Integer.highestOneBit(Math.max(size, 1)); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= size && tree[next] <= remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return position;
+    }
+
+    private long prefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private void addToTree(int position, long delta) {
+        for (int i = position + 1; i <= size; i += i & -i) {
+            tree[i] = Math.addExact(tree[i], delta);
+        }
+    }
+
+    private void appendToTree() {
+        int i = size;
+        tree[i] = Math.addExact(amounts[i - 1], prefixSum(i - 1) - prefixSum(i - (i & -i)));
+    }
+
+    private void rebuildTree() {
+        for (int i = 1; i <= size; i++) {
+            tree[i] = amounts[i - 1];
+        }
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                tree[parent] = Math.addExact(tree[parent], tree[i]);
+            }
+        }
+    }
+
+    private void flip(int position, boolean shouldBePaid, List<Event> toPay, List<Event> toUnpay) {
+        if (paid[position] == shouldBePaid) {
+            return;
+        }
+
+        (shouldBePaid ? toPay : toUnpay).add(toEvent(position));
+        paid[position] = shouldBePaid;
+        // Skrivningen av paid räknar upp versionen i databasen, och $inc på ett saknat fält ger 1
+        versions[position] = versions[position] == NO_VERSION ? 1 : versions[position] + 1;
+    }
+
+    private Event toEvent(int position) {
+        Event event = new Event(ids[position], null, MinorUnits.toAmount(amounts[position]), true,
+                dateTimes[position], paid[position], username);
+        event.setVersion(versions[position] == NO_VERSION ? null : versions[position]);
+        return event;
+    }
+
+    private void set(int position, Event expense) {
+        ids[position] = expense.getId();
+        dateTimes[position] = storedDateTime(expense);
+        versions[position] = expense.getVersion() != null ? expense.getVersion() : NO_VERSION;
+        amounts[position] = MinorUnits.of(expense.getAmount());
+        paid[position] = expense.isPaid();
+    }
+
+    private int indexOf(Event expense) {
+        int position = insertionPoint(storedDateTime(expense), expense.getId());
+        return position < size && ids[position].equals(expense.getId()) ? position : -1;
+    }
+
+    /**
+     * Mongo sparar datum med millisekunder, så ett event som just sparats jämförs som det kommer att läsas tillbaka.
+     */
+    private static LocalDateTime storedDateTime(Event event) {
+        return event.getDateTime().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Första positionen vars (dateTime, id) inte är mindre än den givna, via binärsökning.
+     */
+    private int insertionPoint(LocalDateTime dateTime, String id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = dateTimes[middle].compareTo(dateTime);
+            if (comparison == 0) {
+                comparison = ids[middle].compareTo(id);
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(ids, from, ids, to, length);
+        System.arraycopy(dateTimes, from, dateTimes, to, length);
+        System.arraycopy(versions, from, versions, to, length);
+        System.arraycopy(amounts, from, amounts, to, length);
+        System.arraycopy(paid, from, paid, to, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        dateTimes = Arrays.copyOf(dateTimes, newCapacity);
+        versions = Arrays.copyOf(versions, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        paid = Arrays.copyOf(paid, newCapacity);
+        tree = Arrays.copyOf(tree, newCapacity + 1);
+    }
+}
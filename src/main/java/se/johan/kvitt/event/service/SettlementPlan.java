@@ -0,0 +1,24 @@
+package se.johan.kvitt.event.service;
+
+import se.johan.kvitt.event.model.Event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Resultatet av en settlement-beräkning: vilka utgifter som ska byta betalstatus
+ * samt de nya värdena för användarens ledger.
+ */
+public record SettlementPlan(
+        List<Event> toPay,
+        List<Event> toUnpay,
+        BigDecimal paidExpenseAmount,
+        long unpaidCount,
+        LocalDateTime lastKvittDate
+) {
+
+    public boolean hasChanges() {
+        return !toPay.isEmpty() || !toUnpay.isEmpty();
+    }
+}
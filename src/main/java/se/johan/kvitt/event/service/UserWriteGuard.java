@@ -0,0 +1,104 @@
+package se.johan.kvitt.event.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serialiserar skrivningar per användare inom en instans (striped locks) och kör om
+ * operationer som krockar med en samtidig skrivning från en annan instans (@Version).
+ * Skrivningar som hör ihop (ett event och dess ledger/rollups) körs i en MongoDB-transaktion.
+ */
+@Component
+public class UserWriteGuard {
+
+    private final ReentrantLock[] stripes;
+    private final int maxAttempts;
+    // null när transaktioner är avstängda (kvitt.mongo.transactions.enabled=false)
+    private final TransactionTemplate transactionTemplate;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public UserWriteGuard(@Value("${kvitt.settlement.lock-stripes:64}") int stripeCount,
+                          @Value("${kvitt.settlement.max-attempts:3}") int maxAttempts,
+                          ObjectProvider<MongoTransactionManager> transactionManager) {
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.maxAttempts = maxAttempts;
+        this.transactionTemplate = transactionManager.stream()
+                .findFirst()
+                .map(TransactionTemplate::new)
+                .orElse(null);
+    }
+
+    public <T> T withUserLock(String username, Supplier<T> action) {
+        // ReentrantLock istället för synchronized så att virtuella trådar inte låses fast vid väntan
+        ReentrantLock lock = stripes[Math.floorMod(username.hashCode(), stripes.length)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void withUserLock(String username, Runnable action) {
+        withUserLock(username, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Kör om åtgärden när en optimistisk versionskontroll misslyckas.
+     * Åtgärden måste läsa om det den ändrar så att nästa försök utgår från aktuell data.
+     */
+    public <T> T retryOnConflict(Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                logger.warn("Write conflict (attempt {}/{}), retrying: {}", attempt, maxAttempts, e.getMessage());
+            }
+        }
+    }
+
+    public void retryOnConflict(Runnable action) {
+        retryOnConflict(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return true om skrivningar körs i MongoDB-transaktioner (kvitt.mongo.transactions.enabled).
+     */
+    public boolean transactionsEnabled() {
+        return transactionTemplate != null;
+    }
+
+    /**
+     * Kör åtgärden i en transaktion, så att alla dess skrivningar via MongoTemplate och repositories
+     * sparas tillsammans eller inte alls. Kastar åtgärden rullas transaktionen tillbaka och undantaget
+     * kastas vidare. Utan transaktionshanterare körs åtgärden direkt.
+     * Används inuti retryOnConflict, så att varje försök får en egen transaktion.
+     */
+    public <T> T inTransaction(Supplier<T> action) {
+        if (transactionTemplate == null) {
+            return action.get();
+        }
+        return transactionTemplate.execute(status -> action.get());
+    }
+}
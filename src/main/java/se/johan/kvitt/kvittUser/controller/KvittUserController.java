@@ -1,7 +1,10 @@
 package se.johan.kvitt.kvittUser.controller;
 
 import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseCookie;
@@ -18,10 +21,12 @@ import se.johan.kvitt.kvittUser.service.KvittUserService;
 
 import java.time.Duration;
 
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("api/v1/kvittUser")
 @RestController
 public class KvittUserController {
     private final KvittUserService kvittUserService;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     public KvittUserController(KvittUserService kvittUserService) {
@@ -69,13 +74,13 @@ public class KvittUserController {
 
             // Vi skippar ResponseCookie helt!
 
-            System.out.println("✅ Token generated and sent in response body");
+            logger.info("Token generated for user: {}", dto.username());
 
             // Skicka tillbaka token i bodyn istället för som en kaka
             return ResponseEntity.ok(new KvittUserLoginResponseDTO(dto.username(), token));
 
         } catch (Exception e) {
-            System.err.println("❌ Login failed: " + e.getMessage());
+            logger.warn("Login failed for user {}: {}", dto.username(), e.getMessage());
             throw e;
         }
     }
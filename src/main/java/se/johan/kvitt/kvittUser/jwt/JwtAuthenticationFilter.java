@@ -1,5 +1,7 @@
 package se.johan.kvitt.kvittUser.jwt;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
@@ -9,9 +11,11 @@ import jakarta.validation.constraints.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
@@ -23,16 +27,23 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+    // Saknar tillstånd och kan därför delas av alla anrop
+    private static final WebAuthenticationDetailsSource DETAILS_SOURCE = new WebAuthenticationDetailsSource();
     private final JwtUtils jwtUtils;
     private final KvittUserDetailsService kvittUserDetailsService;
+    private final Counter validTokenCounter;
+    private final Counter invalidTokenCounter;
 
     //@Autowired
-    public JwtAuthenticationFilter(JwtUtils jwtUtils, KvittUserDetailsService kvittUserDetailsService) {
+    public JwtAuthenticationFilter(JwtUtils jwtUtils, KvittUserDetailsService kvittUserDetailsService, MeterRegistry meterRegistry) {
         this.jwtUtils = jwtUtils;
         this.kvittUserDetailsService = kvittUserDetailsService;
+        this.validTokenCounter = jwtValidationCounter(meterRegistry, "success");
+        this.invalidTokenCounter = jwtValidationCounter(meterRegistry, "failure");
     }
 
     @Override
@@ -51,26 +62,31 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             FilterChain filterChain)
             throws ServletException, IOException {
 
-        logger.debug("---------JwtAuthenticationFilter START---------");
-
         String token = extractJwtFromCookie(request);
         if (token == null) {
             token = extractJwtFromRequest(request);
         }
 
-        if (token != null && jwtUtils.validateJwtToken(token)) {
-            String username = jwtUtils.getUsernameFromJwtToken(token);
-            Set<UserRole> userRoles = jwtUtils.getRolesFromJwtToken(token);
+        // Token parsas och verifieras en gång per anrop (eller hämtas ur cachen)
+        JwtClaims claims = token != null ? jwtUtils.parseJwtToken(token) : null;
+
+        if (token != null) {
+            (claims != null ? validTokenCounter : invalidTokenCounter).increment();
+        }
+
+        if (claims != null) {
+            String username = claims.username();
+            Set<UserRole> userRoles = claims.roles();
+            SecurityContext securityContext = SecurityContextHolder.getContext();
 
-            if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                List<SimpleGrantedAuthority> authorities = userRoles.stream()
-                        .flatMap(role -> role.getUserAuthorities().stream())
-                        .toList();
+            if (username != null && securityContext.getAuthentication() == null) {
+                // Förberäknad, oföränderlig lista per rollkombination
+                List<SimpleGrantedAuthority> authorities = UserRole.getAuthorities(userRoles);
 
                 UsernamePasswordAuthenticationToken authentication =
                         new UsernamePasswordAuthenticationToken(username, null, authorities);
-                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(authentication);
+                authentication.setDetails(DETAILS_SOURCE.buildDetails(request));
+                securityContext.setAuthentication(authentication);
 
                 logger.debug("Authenticated user: '{}' with roles {}", username, userRoles);
             }
@@ -79,11 +95,17 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         filterChain.doFilter(request, response);
-        logger.debug("---------JwtAuthenticationFilter END---------");
     }
 
 
 
+    private static Counter jwtValidationCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("kvitt.jwt.validation")
+                .description("JWT validations in the authentication filter")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
     private String extractJwtFromCookie(HttpServletRequest request) {
         if (request.getCookies() == null) return null;
         for (Cookie cookie : request.getCookies()) {
@@ -0,0 +1,89 @@
+package se.johan.kvitt.kvittUser.jwt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import se.johan.kvitt.auth.UserRole;
+
+/**
+ * Reaktiv motsvarighet till {@link JwtAuthenticationFilter}. Token läses från cookien eller
+ * Authorization-headern och autentiseringen läggs i Reactor-kontexten istället för en ThreadLocal.
+ * Skapas av AppReactiveSecurityConfig och är ingen bean, så att den inte även registreras som vanligt WebFilter.
+ */
+public class JwtAuthenticationWebFilter implements WebFilter {
+    private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationWebFilter.class);
+    private final JwtUtils jwtUtils;
+    private final Counter validTokenCounter;
+    private final Counter invalidTokenCounter;
+
+    public JwtAuthenticationWebFilter(JwtUtils jwtUtils, MeterRegistry meterRegistry) {
+        this.jwtUtils = jwtUtils;
+        // Samma mätare som servlet-filtret, bara ett av dem finns i en körning
+        this.validTokenCounter = jwtValidationCounter(meterRegistry, "success");
+        this.invalidTokenCounter = jwtValidationCounter(meterRegistry, "failure");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().value();
+        if (path.equals("/api/v1/kvittUser/create") || path.equals("/api/v1/kvittUser/login")) {
+            return chain.filter(exchange);
+        }
+
+        String token = extractJwtFromCookie(request);
+        if (token == null) {
+            token = extractJwtFromRequest(request);
+        }
+        if (token == null) {
+            logger.debug("No valid JWT token found");
+            return chain.filter(exchange);
+        }
+
+        // Parsningen är ren CPU (och oftast en cacheträff), så den görs direkt på event loop-tråden
+        JwtClaims claims = jwtUtils.parseJwtToken(token);
+        (claims != null ? validTokenCounter : invalidTokenCounter).increment();
+
+        if (claims == null || claims.username() == null) {
+            logger.debug("No valid JWT token found");
+            return chain.filter(exchange);
+        }
+
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(claims.username(), null, UserRole.getAuthorities(claims.roles()));
+        logger.debug("Authenticated user: '{}' with roles {}", claims.username(), claims.roles());
+
+        return chain.filter(exchange)
+                .contextWrite(ReactiveSecurityContextHolder.withAuthentication(authentication));
+    }
+
+    private static Counter jwtValidationCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("kvitt.jwt.validation")
+                .description("JWT validations in the authentication filter")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private String extractJwtFromCookie(ServerHttpRequest request) {
+        HttpCookie cookie = request.getCookies().getFirst("token");
+        return cookie != null ? cookie.getValue() : null;
+    }
+
+    private String extractJwtFromRequest(ServerHttpRequest request) {
+        String header = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith("Bearer ")) {
+            return header.substring(7);
+        }
+        return null;
+    }
+}
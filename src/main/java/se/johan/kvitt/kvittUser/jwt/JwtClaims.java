@@ -0,0 +1,15 @@
+package se.johan.kvitt.kvittUser.jwt;
+
+import se.johan.kvitt.auth.UserRole;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * De delar av en verifierad JWT som applikationen använder.
+ */
+public record JwtClaims(
+        String username,
+        Set<UserRole> roles,
+        Instant expiresAt
+) {}
@@ -1,6 +1,10 @@
 package se.johan.kvitt.kvittUser.jwt;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
@@ -12,22 +16,38 @@ import se.johan.kvitt.auth.UserRole;
 import se.johan.kvitt.kvittUser.model.KvittUser;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Date;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Component
 public class JwtUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
+    // Ogiltiga tokens loggas på warn högst en gång per intervall, övriga räknas och rapporteras i nästa logg
+    private static final long FAILURE_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
     // Hämtar värdet från application.properties (secretBase64= ${BASE64})
     @Value("${secretBase64}")
     private String base64EncodedSecretKey;
 
+    @Value("${kvitt.jwt.cache.max-size:10000}")
+    private long verifiedTokenCacheSize;
+
     private SecretKey key;
+    private JwtParser jwtParser;
+    private Cache<String, JwtClaims> verifiedTokens;
+    private final AtomicLong nextFailureLogAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong suppressedFailures = new AtomicLong();
 
     private final int jwtExpirationMs = (int) TimeUnit.HOURS.toMillis(24);
 
@@ -41,6 +61,14 @@ public class JwtUtils {
             // Trimma eventuella mellanslag som kan uppstå vid miljövariabel-injektion
             byte[] keyBytes = Base64.getDecoder().decode(base64EncodedSecretKey.trim());
             this.key = Keys.hmacShaKeyFor(keyBytes);
+            // Parsern är trådsäker och återanvänds för alla anrop
+            this.jwtParser = Jwts.parser()
+                    .verifyWith(key)
+                    .build();
+            this.verifiedTokens = Caffeine.newBuilder()
+                    .maximumSize(verifiedTokenCacheSize)
+                    .expireAfter(new TokenExpiry())
+                    .build();
             logger.info("✅ JwtUtils initialized: Cryptographic key generated successfully.");
         } catch (Exception e) {
             logger.error("❌ Failed to initialize JWT key: {}", e.getMessage());
@@ -66,47 +94,39 @@ public class JwtUtils {
     }
 
 
-    public String getUsernameFromJwtToken(String token) {
-        try {
-            Claims claims = Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload();
-
-            String username = claims.getSubject();
-            logger.debug("Extracted username '{}' from JWT token", username);
-            return username;
-
-        } catch (Exception e) {
-            logger.warn("Failed to extract username from token: {}", token);
-            return null;
+    /**
+     * Verifierar token och returnerar dess claims, eller null om token är ogiltig.
+     * Verifierade tokens cachas (nyckel: SHA-256 av token) fram till att de går ut,
+     * så att upprepade anrop med samma token slipper signaturkontroll och JSON-parsning.
+     */
+    public JwtClaims parseJwtToken(String token) {
+        String tokenHash = hashToken(token);
+        JwtClaims cached = verifiedTokens.getIfPresent(tokenHash);
+        if (cached != null) {
+            return cached;
         }
-    }
-
 
-    public boolean validateJwtToken(String authToken) {
         try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(authToken);
+            Claims claims = jwtParser.parseSignedClaims(token).getPayload();
+            JwtClaims jwtClaims = new JwtClaims(
+                    claims.getSubject(),
+                    getRolesFromClaims(claims),
+                    claims.getExpiration() != null ? claims.getExpiration().toInstant() : null
+            );
+
+            if (jwtClaims.expiresAt() != null) {
+                verifiedTokens.put(tokenHash, jwtClaims);
+            }
 
             logger.debug("JWT validation succeeded");
-            return true;
+            return jwtClaims;
         } catch (Exception e) {
-            logger.error("JWT validation failed: {}", e.getMessage());
+            logValidationFailure(e);
+            return null;
         }
-        return false;
     }
 
-    public Set<UserRole> getRolesFromJwtToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-
+    private Set<UserRole> getRolesFromClaims(Claims claims) {
         List<?> authoritiesClaim = claims.get("authorities", List.class);
 
         if (authoritiesClaim == null || authoritiesClaim.isEmpty()) {
@@ -120,13 +140,56 @@ public class JwtUtils {
                 .map(role -> role.replace("ROLE_", ""))
                 .map(String::toUpperCase)
                 .map(UserRole::valueOf) // Map to ENUM
-                .collect(Collectors.toSet());
+                .collect(Collectors.toUnmodifiableSet());
 
         logger.debug("Extracted roles from JWT token: {}", roles);
         return roles;
+    }
 
+    /**
+     * Många klienter med utgångna tokens ger en ström av misslyckade valideringar.
+     * Istället för en logg per anrop skrivs en sammanfattning högst en gång per intervall.
+     */
+    private void logValidationFailure(Exception e) {
+        long now = System.nanoTime();
+        long nextLogAt = nextFailureLogAt.get();
+
+        if (now - nextLogAt >= 0 && nextFailureLogAt.compareAndSet(nextLogAt, now + FAILURE_LOG_INTERVAL_NANOS)) {
+            long suppressed = suppressedFailures.getAndSet(0);
+            logger.warn("JWT validation failed: {} ({} more failures since last report)", e.getClass().getSimpleName(), suppressed);
+        } else {
+            suppressedFailures.incrementAndGet();
+            logger.debug("JWT validation failed: {}", e.getClass().getSimpleName());
+        }
+    }
 
+    private static String hashToken(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 
+    /**
+     * Låter varje cachad token leva exakt till sin egen utgångstid.
+     */
+    private static final class TokenExpiry implements Expiry<String, JwtClaims> {
+
+        @Override
+        public long expireAfterCreate(String tokenHash, JwtClaims claims, long currentTime) {
+            return Math.max(0, Duration.between(Instant.now(), claims.expiresAt()).toNanos());
+        }
 
+        @Override
+        public long expireAfterUpdate(String tokenHash, JwtClaims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String tokenHash, JwtClaims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package se.johan.kvitt.kvittUser.model;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import se.johan.kvitt.auth.UserRole;
 
@@ -10,6 +11,7 @@ public class KvittUser {
 
     @Id
     private String id;
+    @Indexed(unique = true)
     private String username;
     private String password;
 
@@ -1,25 +1,29 @@
 package se.johan.kvitt.kvittUser.model;
 
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import se.johan.kvitt.kvittUser.repository.KvittUserRepository;
+import se.johan.kvitt.kvittUser.service.KvittUserCache;
 
 @Service
-public class KvittUserDetailsService implements UserDetailsService {
+public class KvittUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
 
+    private final KvittUserCache kvittUserCache;
     private final KvittUserRepository kvittUserRepository;
 
     //@Autowired
-    public KvittUserDetailsService(KvittUserRepository kvittUserRepository) {
+    public KvittUserDetailsService(KvittUserCache kvittUserCache, KvittUserRepository kvittUserRepository) {
+        this.kvittUserCache = kvittUserCache;
         this.kvittUserRepository = kvittUserRepository;
     }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
 
-        KvittUser kvittUser = kvittUserRepository.findByUsername(username)
+        KvittUser kvittUser = kvittUserCache.findByUsername(username)
                 .orElseThrow(
                         () -> new UsernameNotFoundException("User with username " + username + " Was not found")
                 );
@@ -27,5 +31,20 @@ public class KvittUserDetailsService implements UserDetailsService {
 
         return new KvittUserDetails(kvittUser);
     }
-}
 
+    // Anropas av Spring Security efter en lyckad inloggning när hashen behöver uppgraderas
+    // (saknat {bcrypt}-prefix eller lägre styrka än konfigurerat)
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        KvittUser kvittUser = kvittUserRepository.findByUsername(user.getUsername())
+                .orElseThrow(
+                        () -> new UsernameNotFoundException("User with username " + user.getUsername() + " Was not found")
+                );
+
+        kvittUser.setPassword(newPassword);
+        KvittUser saved = kvittUserRepository.save(kvittUser);
+        kvittUserCache.invalidate(saved.getUsername());
+
+        return new KvittUserDetails(saved);
+    }
+}
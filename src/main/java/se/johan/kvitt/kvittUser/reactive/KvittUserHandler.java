@@ -0,0 +1,83 @@
+package se.johan.kvitt.kvittUser.reactive;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import se.johan.kvitt.kvittUser.dto.KvittUserCreateKvittUserRequestDTO;
+import se.johan.kvitt.kvittUser.dto.KvittUserLoginRequestDTO;
+import se.johan.kvitt.kvittUser.dto.KvittUserLoginResponseDTO;
+import se.johan.kvitt.kvittUser.service.KvittUserService;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Handler-funktioner för registrering och inloggning i det reaktiva API:et.
+ * KvittUserService och lösenordshashningen är blockerande och körs därför på boundedElastic.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class KvittUserHandler {
+
+    private final KvittUserService kvittUserService;
+    private final Validator validator;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    public KvittUserHandler(KvittUserService kvittUserService, Validator validator) {
+        this.kvittUserService = kvittUserService;
+        this.validator = validator;
+    }
+
+    public Mono<ServerResponse> createKvittUser(ServerRequest request) {
+        return request.bodyToMono(KvittUserCreateKvittUserRequestDTO.class)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Request body is missing")))
+                .map(this::validate)
+                .publishOn(Schedulers.boundedElastic())
+                .map(kvittUserService::createKvittUser)
+                .flatMap(created -> ServerResponse.status(HttpStatus.CREATED).bodyValue(created));
+    }
+
+    public Mono<ServerResponse> login(ServerRequest request) {
+        return request.bodyToMono(KvittUserLoginRequestDTO.class)
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException("Request body is missing")))
+                .map(this::validate)
+                .publishOn(Schedulers.boundedElastic())
+                .map(dto -> {
+                    String token = kvittUserService.login(dto);
+                    logger.info("Token generated for user: {}", dto.username());
+                    return new KvittUserLoginResponseDTO(dto.username(), token);
+                })
+                // I servlet-läget översätter Spring Securitys filter felet till 401, här görs det i handlern
+                .onErrorMap(AuthenticationException.class, e -> {
+                    logger.warn("Login failed: {}", e.getMessage());
+                    return new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username or password");
+                })
+                .flatMap(response -> ServerResponse.ok().bodyValue(response));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private <T> T validate(T dto) {
+        Set<ConstraintViolation<T>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            throw new ServerWebInputException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", ")));
+        }
+        return dto;
+    }
+}
@@ -0,0 +1,30 @@
+package se.johan.kvitt.kvittUser.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Funktionella routes för registrering och inloggning, samma sökvägar som KvittUserController.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class KvittUserRouter {
+
+    /**
+     * @param kvittUserHandler Handler-funktionerna för användare.
+     * @return RouterFunction med routes under api/v1/kvittUser.
+     */
+    @Bean
+    public RouterFunction<ServerResponse> kvittUserRoutes(KvittUserHandler kvittUserHandler) {
+        return route()
+                .path("/api/v1/kvittUser", builder -> builder
+                        .POST("/create", kvittUserHandler::createKvittUser)
+                        .POST("/login", kvittUserHandler::login))
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+package se.johan.kvitt.kvittUser.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.johan.kvitt.kvittUser.model.KvittUser;
+import se.johan.kvitt.kvittUser.repository.KvittUserRepository;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Cache framför uppslagningar av användare på användarnamn.
+ * Begränsas både i storlek och tid; poster som ändras måste invalideras explicit.
+ * Träffar och missar exponeras som metrics under namnet "kvittUsers" när en MeterRegistry finns.
+ */
+@Component
+public class KvittUserCache {
+
+    private final KvittUserRepository kvittUserRepository;
+    private final Cache<String, KvittUser> usersByUsername;
+
+    public KvittUserCache(KvittUserRepository kvittUserRepository,
+                          ObjectProvider<MeterRegistry> meterRegistry,
+                          @Value("${kvitt.user-cache.max-size:10000}") long maxSize,
+                          @Value("${kvitt.user-cache.ttl:10m}") Duration ttl) {
+        this.kvittUserRepository = kvittUserRepository;
+        this.usersByUsername = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, usersByUsername, "kvittUsers"));
+    }
+
+    public Optional<KvittUser> findByUsername(String username) {
+        // Användare som inte finns cachas inte (Caffeine sparar inte null)
+        return Optional.ofNullable(usersByUsername.get(username,
+                key -> kvittUserRepository.findByUsername(key).orElse(null)));
+    }
+
+    public void invalidate(String username) {
+        usersByUsername.invalidate(username);
+    }
+}
@@ -17,14 +17,16 @@ import se.johan.kvitt.kvittUser.repository.KvittUserRepository;
 @Service
 public class KvittUserService {
     private final KvittUserRepository kvittUserRepository;
+    private final KvittUserCache kvittUserCache;
     private final KvittUserMapper kvittUserMapper;
     private final JwtUtils jwtUtils;
     private final AuthenticationManager authenticationManager;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    public KvittUserService(KvittUserRepository kvittUserRepository, KvittUserMapper kvittUserMapper, JwtUtils jwtUtils, AuthenticationManager authenticationManager) {
+    public KvittUserService(KvittUserRepository kvittUserRepository, KvittUserCache kvittUserCache, KvittUserMapper kvittUserMapper, JwtUtils jwtUtils, AuthenticationManager authenticationManager) {
         this.kvittUserRepository = kvittUserRepository;
+        this.kvittUserCache = kvittUserCache;
         this.kvittUserMapper = kvittUserMapper;
         this.jwtUtils = jwtUtils;
         this.authenticationManager = authenticationManager;
@@ -32,6 +34,7 @@ public class KvittUserService {
 
     public KvittUser createKvittUser(KvittUserCreateKvittUserRequestDTO dto) {
         KvittUser saved = kvittUserRepository.save(kvittUserMapper.toEntity(dto));
+        kvittUserCache.invalidate(saved.getUsername());
         logger.info("New KvittUser was created & saved: id={}", saved.getId());
         return saved;
     }
@@ -41,7 +44,8 @@ public class KvittUserService {
                 new UsernamePasswordAuthenticationToken(dto.username(), dto.password())
         );
 
-        KvittUser kvittUser = kvittUserRepository.findByUsername(dto.username())
+        // Träffar cachen eftersom authenticate precis läste in användaren
+        KvittUser kvittUser = kvittUserCache.findByUsername(dto.username())
                 .orElseThrow(); // borde inte hända
 
         return jwtUtils.generateJwtToken(kvittUser);
@@ -0,0 +1,33 @@
+package se.johan.kvitt;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * Bas för integrationstester mot en riktig MongoDB. Containern körs som ett replica set med en nod,
+ * så transaktioner och change streams fungerar. Den startas en gång och delas av alla testklasser,
+ * så att Springs cachade kontext fortsätter att peka på samma databas.
+ */
+@SpringBootTest
+public abstract class MongoIntegrationTest {
+
+    protected static final MongoDBContainer MONGO = new MongoDBContainer(DockerImageName.parse("mongo:7.0"));
+
+    // 256 bitar, det minsta jjwt accepterar för HS256
+    private static final String TEST_SECRET = "a2l0dC10ZXN0LXNlY3JldC1hdC1sZWFzdC0yNTYtYml0cw==";
+
+    static {
+        MONGO.start();
+    }
+
+    @DynamicPropertySource
+    static void mongoProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", () -> MONGO.getReplicaSetUrl("kvitt"));
+        registry.add("spring.data.mongodb.database", () -> "kvitt");
+        registry.add("secretBase64", () -> TEST_SECRET);
+        registry.add("kvitt.mongo.transactions.enabled", () -> "true");
+    }
+}
@@ -0,0 +1,83 @@
+package se.johan.kvitt.event.migration;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import se.johan.kvitt.MongoIntegrationTest;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventMigrationTest extends MongoIntegrationTest {
+
+    private static final String USERNAME = "migration-test";
+
+    @Autowired
+    private EventAmountMigration eventAmountMigration;
+
+    @Autowired
+    private EventVersionMigration eventVersionMigration;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.getCollection("events").deleteMany(new Document("username", USERNAME));
+        // Migreringarna har redan körts när kontexten startade
+        mongoTemplate.getCollection("migrations").deleteMany(new Document());
+    }
+
+    @Test
+    void legacyStringAmountIsConvertedAndRoundedHalfEven() {
+        insertLegacyEvent("a", "10.005");
+        insertLegacyEvent("b", "10.015");
+
+        eventAmountMigration.afterSingletonsInstantiated();
+
+        assertEquals(0, new BigDecimal("10.00").compareTo(amountOf("a")));
+        assertEquals(0, new BigDecimal("10.02").compareTo(amountOf("b")));
+    }
+
+    @Test
+    void migrationsRunOnlyOnce() {
+        eventAmountMigration.afterSingletonsInstantiated();
+        eventVersionMigration.afterSingletonsInstantiated();
+        assertEquals(2, mongoTemplate.getCollection("migrations").countDocuments());
+
+        // Skrivs efter att markeringen finns, så den ska inte röras av en omstart
+        insertLegacyEvent("late", "5.00");
+        eventAmountMigration.afterSingletonsInstantiated();
+        eventVersionMigration.afterSingletonsInstantiated();
+
+        Document late = find("late");
+        assertTrue(late.get("amount") instanceof String);
+        assertFalse(late.containsKey("version"));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private void insertLegacyEvent(String title, String amount) {
+        mongoTemplate.getCollection("events").insertOne(new Document("title", title)
+                .append("amount", amount)
+                .append("expense", true)
+                .append("dateTime", new Date())
+                .append("paid", false)
+                .append("username", USERNAME));
+    }
+
+    private BigDecimal amountOf(String title) {
+        return ((Decimal128) find(title).get("amount")).bigDecimalValue();
+    }
+
+    private Document find(String title) {
+        return mongoTemplate.getCollection("events").find(new Document("username", USERNAME).append("title", title)).first();
+    }
+}
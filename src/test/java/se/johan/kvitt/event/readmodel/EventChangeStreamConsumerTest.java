@@ -0,0 +1,173 @@
+package se.johan.kvitt.event.readmodel;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.TestPropertySource;
+import se.johan.kvitt.MongoIntegrationTest;
+import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.dto.response.EventRollupResponseDTO;
+import se.johan.kvitt.event.dto.response.EventSummaryResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.repository.EventRepository;
+import se.johan.kvitt.event.service.EventLedgerService;
+import se.johan.kvitt.event.service.EventRollupService;
+import se.johan.kvitt.event.service.EventService;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Kör konsumenten mot ett riktigt replica set och kontrollerar att ledger, rollups och betalstatus
+ * följer ändringarna i events.
+ */
+@TestPropertySource(properties = {
+        "kvitt.read-model.change-stream.enabled=true",
+        "kvitt.read-model.change-stream.lease-duration=5s"
+})
+class EventChangeStreamConsumerTest extends MongoIntegrationTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventLedgerService eventLedgerService;
+
+    @Autowired
+    private EventRollupService eventRollupService;
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private String username;
+
+    @BeforeEach
+    void setUp() {
+        username = "stream-" + UUID.randomUUID();
+    }
+
+    @Test
+    void createEditAndDeleteAreAppliedIncrementally() {
+        eventService.createEvent(new CreateEventDto("Salary", new BigDecimal("1000.00"), false, false, username));
+        Event rent = eventService.createEvent(new CreateEventDto("Rent", new BigDecimal("300.00"), true, false, username));
+
+        awaitUntil(() -> ledgerMatches(new BigDecimal("1000.00"), new BigDecimal("300.00"), 0));
+        assertTrue(isPaid(rent));
+
+        eventService.editEvent(username, new EditEventDto(rent.getId(), "Rent", new BigDecimal("1500.00"), true, rent.getDateTime()));
+        awaitUntil(() -> ledgerMatches(new BigDecimal("1000.00"), new BigDecimal("1500.00"), 1));
+        assertFalse(isPaid(rent));
+
+        eventService.deleteEvent(username, rent.getId());
+        awaitUntil(() -> ledgerMatches(new BigDecimal("1000.00"), BigDecimal.ZERO, 0));
+
+        EventRollupResponseDTO month = eventRollupService.getMonthlyTotals(username, 1).get(0);
+        assertEquals(0, new BigDecimal("1000.00").compareTo(month.totalIncome()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(month.totalExpense()));
+    }
+
+    @Test
+    void ledgerMatchesEventsAfterBurstOfChanges() {
+        List<Event> expenses = new ArrayList<>();
+        eventService.createEvent(new CreateEventDto("Salary", new BigDecimal("2000.00"), false, false, username));
+        for (int i = 1; i <= 20; i++) {
+            expenses.add(eventService.createEvent(new CreateEventDto("Expense " + i, new BigDecimal(i * 25), true, false, username)));
+        }
+        for (int i = 0; i < expenses.size(); i += 3) {
+            Event expense = expenses.get(i);
+            eventService.editEvent(username, new EditEventDto(expense.getId(), expense.getTitle(), new BigDecimal("99.50"), true, expense.getDateTime()));
+        }
+        for (int i = 1; i < expenses.size(); i += 4) {
+            eventService.deleteEvent(username, expenses.get(i).getId());
+        }
+
+        // Aggregeringen över events är facit för ledgerns inkrementella summor
+        EventSummaryResponseDTO summary = eventService.getSummary(username);
+        awaitUntil(() -> ledgerMatches(summary.totalIncome(), summary.totalExpense(), unpaid()));
+        assertEquals(unpaid(), eventLedgerService.getLedger(username).getUnpaidCount());
+    }
+
+    @Test
+    void changeWithoutPreImageRebuildsTheUser() {
+        Event rent = eventService.createEvent(new CreateEventDto("Rent", new BigDecimal("300.00"), true, false, username));
+        awaitUntil(() -> ledgerMatches(BigDecimal.ZERO, new BigDecimal("300.00"), 1));
+
+        setPreAndPostImages(false);
+        try {
+            eventService.editEvent(username, new EditEventDto(rent.getId(), "Rent", new BigDecimal("450.00"), true, rent.getDateTime()));
+            eventService.createEvent(new CreateEventDto("Food", new BigDecimal("50.00"), true, false, username));
+
+            awaitUntil(() -> ledgerMatches(BigDecimal.ZERO, new BigDecimal("500.00"), 2));
+        } finally {
+            setPreAndPostImages(true);
+        }
+    }
+
+    @Test
+    void secondInstanceCannotTakeTheLease() {
+        awaitUntil(() -> mongoTemplate.getCollection("readModelLeases").countDocuments(new Document("_id", "events")) > 0);
+
+        ChangeStreamLease otherInstance = new ChangeStreamLease(mongoTemplate);
+        assertFalse(otherInstance.tryAcquire("events", Duration.ofSeconds(5)));
+        assertFalse(otherInstance.renew("events", Duration.ofSeconds(5)));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * @param unpaidCount Förväntat antal obetalda utgifter, eller -1 för att inte kontrollera det.
+     */
+    private boolean ledgerMatches(BigDecimal totalIncome, BigDecimal totalExpense, long unpaidCount) {
+        EventLedger ledger = mongoTemplate.findById(username, EventLedger.class);
+        return ledger != null
+                && ledger.getTotalIncome().compareTo(totalIncome) == 0
+                && ledger.getTotalExpense().compareTo(totalExpense) == 0
+                && (unpaidCount < 0 || ledger.getUnpaidCount() == unpaidCount);
+    }
+
+    private long unpaid() {
+        return eventRepository.findExpensesByPaid(username, false).size();
+    }
+
+    private boolean isPaid(Event event) {
+        return eventRepository.findByIdAndUsername(event.getId(), username).orElseThrow().isPaid();
+    }
+
+    private void setPreAndPostImages(boolean enabled) {
+        mongoTemplate.executeCommand(new Document("collMod", mongoTemplate.getCollectionName(Event.class))
+                .append("changeStreamPreAndPostImages", new Document("enabled", enabled)));
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Read model did not catch up within " + TIMEOUT);
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted while waiting for the read model");
+            }
+        }
+    }
+}
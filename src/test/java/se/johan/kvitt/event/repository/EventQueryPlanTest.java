@@ -0,0 +1,186 @@
+package se.johan.kvitt.event.repository;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import se.johan.kvitt.MongoIntegrationTest;
+import se.johan.kvitt.event.model.Event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Kör explain på de kommandon som repository-metoderna faktiskt skickar och kontrollerar att
+ * settlement- och listfrågorna går via rätt index (IXSCAN) och inte skannar hela collectionen.
+ */
+class EventQueryPlanTest extends MongoIntegrationTest {
+
+    private static final String USERNAME = "query-plan-test";
+    private static final String SETTLEMENT_INDEX = "username_expense_paid_dateTime";
+    private static final String LIST_INDEX = "username_dateTime_id";
+    // Fält som drivrutinen lägger till och som inte hör till själva frågan
+    private static final Set<String> SESSION_FIELDS = Set.of("$db", "lsid", "$clusterTime", "txnNumber", "$readPreference", "readConcern");
+
+    private static final ConcurrentLinkedDeque<BsonDocument> commands = new ConcurrentLinkedDeque<>();
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @TestConfiguration
+    static class CommandCaptureConfig {
+
+        @Bean
+        MongoClientSettingsBuilderCustomizer commandCapture() {
+            return builder -> builder.addCommandListener(new CommandListener() {
+                @Override
+                public void commandStarted(CommandStartedEvent event) {
+                    // Kommandot får inte användas efter anropet, så det kopieras
+                    if (event.getCommandName().equals("find") || event.getCommandName().equals("aggregate")) {
+                        commands.add(event.getCommand().clone());
+                    }
+                }
+            });
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.remove(query(where("username").is(USERNAME)), Event.class);
+        List<Event> events = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 50; i++) {
+            events.add(new Event(null, "Event " + i, new BigDecimal("10.00"), i % 3 != 0, start.plusDays(i), i % 2 == 0, USERNAME));
+        }
+        mongoTemplate.insertAll(events);
+    }
+
+    @Test
+    void unpaidSettlementQueryUsesSettlementIndex() {
+        assertPlan(() -> eventRepository.findUnpaidExpensesForSettlement(USERNAME), SETTLEMENT_INDEX, true);
+    }
+
+    @Test
+    void settlementQueryUsesSettlementIndex() {
+        // paid: $in ger en sammanfogning av två index-intervall (SORT_MERGE) istället för en sortering i minnet
+        assertPlan(() -> eventRepository.findExpensesForSettlement(USERNAME), SETTLEMENT_INDEX, true);
+    }
+
+    @Test
+    void paidAndUnpaidListsUseSettlementIndex() {
+        assertPlan(() -> eventRepository.findExpensesByPaid(USERNAME, true), SETTLEMENT_INDEX, true);
+        assertPlan(() -> eventRepository.findExpensesByPaid(USERNAME, false), SETTLEMENT_INDEX, true);
+    }
+
+    @Test
+    void firstPageUsesListIndex() {
+        assertPlan(() -> eventRepository.findByUsernameOrderByDateTimeAscIdAsc(USERNAME, Limit.of(10)), LIST_INDEX, true);
+    }
+
+    @Test
+    void nextPageUsesListIndex() {
+        assertPlan(() -> eventRepository.findPageAfter(USERNAME, LocalDateTime.of(2024, 1, 10, 12, 0), new ObjectId(), Limit.of(10)),
+                LIST_INDEX, false);
+    }
+
+    @Test
+    void ndjsonStreamUsesListIndex() {
+        assertPlan(() -> {
+            try (Stream<Event> events = eventRepository.streamByUsernameOrderByDateTimeAscIdAsc(USERNAME)) {
+                events.forEach(event -> { });
+            }
+        }, LIST_INDEX, true);
+    }
+
+    @Test
+    void summaryAggregationDoesNotScanCollection() {
+        assertPlan(() -> eventRepository.sumAmountsByExpense(USERNAME), null, false);
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    /**
+     * @param expectedIndex Index som planen måste använda, eller null om alla index på username duger.
+     * @param sortedByIndex Om resultatet ska komma i ordning från indexet utan en sortering i minnet (SORT).
+     */
+    private void assertPlan(Runnable repositoryCall, String expectedIndex, boolean sortedByIndex) {
+        commands.clear();
+        repositoryCall.run();
+        BsonDocument command = commands.stream()
+                .filter(candidate -> candidate.getString(candidate.getFirstKey()).getValue().equals("events"))
+                .findFirst()
+                .orElse(null);
+        assertNotNull(command, "No command on events was sent");
+
+        BsonDocument explained = new BsonDocument();
+        command.forEach((key, value) -> {
+            if (!SESSION_FIELDS.contains(key)) {
+                explained.append(key, value);
+            }
+        });
+        Document explain = mongoTemplate.getDb().runCommand(new BsonDocument("explain", explained)
+                .append("verbosity", new BsonString("queryPlanner")));
+
+        List<String> stages = new ArrayList<>();
+        List<String> indexNames = new ArrayList<>();
+        collectStages(explain, stages, indexNames);
+
+        assertFalse(stages.contains("COLLSCAN"), "Collection scan for " + explained + ": " + stages);
+        assertTrue(stages.contains("IXSCAN"), "No index scan for " + explained + ": " + stages);
+        if (expectedIndex != null) {
+            assertTrue(indexNames.stream().allMatch(expectedIndex::equals) && !indexNames.isEmpty(),
+                    "Expected " + expectedIndex + " but plan used " + indexNames);
+        }
+        if (sortedByIndex) {
+            assertFalse(stages.contains("SORT"), "In-memory sort for " + explained + ": " + stages);
+        }
+    }
+
+    /**
+     * Samlar stegen i den vinnande planen. Explain-formatet skiljer sig mellan klassisk motor och SBE
+     * och mellan find och aggregate, så hela svaret gås igenom utom de förkastade planerna.
+     */
+    private static void collectStages(Object node, List<String> stages, List<String> indexNames) {
+        if (node instanceof Map<?, ?> map) {
+            if (map.get("stage") instanceof String stage) {
+                stages.add(stage);
+            }
+            if (map.get("indexName") instanceof String indexName) {
+                indexNames.add(indexName);
+            }
+            map.forEach((key, value) -> {
+                if (!"rejectedPlans".equals(key)) {
+                    collectStages(value, stages, indexNames);
+                }
+            });
+        } else if (node instanceof Collection<?> values) {
+            values.forEach(value -> collectStages(value, stages, indexNames));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package se.johan.kvitt.event.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.TestPropertySource;
+import se.johan.kvitt.MongoIntegrationTest;
+import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.service.EventImportService;
+import se.johan.kvitt.event.service.EventService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Kör repository-metoderna och tjänsternas läs- och skrivvägar med ShardKeyGuard påslagen.
+ * Drivrutinen sväljer undantag från command listeners, så testet fallerar istället på varje
+ * ökning av {@code kvitt.mongo.untargeted}, dvs. varje kommando mot events utan username.
+ */
+@TestPropertySource(properties = "kvitt.mongo.sharding.guard.enabled=true")
+class ShardKeyGuardTest extends MongoIntegrationTest {
+
+    private static final String USERNAME = "shard-key-test";
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventImportService eventImportService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.remove(query(where("username").is(USERNAME)), Event.class);
+    }
+
+    @Test
+    void repositoryMethodsTargetTheShardKey() {
+        Event event = assertTargeted("save (insert)", () -> eventRepository.save(
+                new Event(null, "Rent", new BigDecimal("100.00"), true, LocalDateTime.now(), false, USERNAME)));
+
+        assertTargeted("findByUsername", () -> eventRepository.findByUsername(USERNAME));
+        assertTargeted("findByIdAndUsername", () -> eventRepository.findByIdAndUsername(event.getId(), USERNAME));
+        assertTargeted("findUnpaidExpensesForSettlement", () -> eventRepository.findUnpaidExpensesForSettlement(USERNAME));
+        assertTargeted("findExpensesByPaid", () -> eventRepository.findExpensesByPaid(USERNAME, false));
+        assertTargeted("findExpensesForSettlement", () -> eventRepository.findExpensesForSettlement(USERNAME));
+        assertTargeted("findByUsernameOrderByDateTimeAscIdAsc", () -> eventRepository.findByUsernameOrderByDateTimeAscIdAsc(USERNAME, Limit.of(10)));
+        assertTargeted("findPageAfter", () -> eventRepository.findPageAfter(USERNAME, event.getDateTime(), new ObjectId(event.getId()), Limit.of(10)));
+        assertTargeted("streamByUsernameOrderByDateTimeAscIdAsc", () -> {
+            try (Stream<Event> events = eventRepository.streamByUsernameOrderByDateTimeAscIdAsc(USERNAME)) {
+                return events.count();
+            }
+        });
+        assertTargeted("sumAmountsByExpense", () -> eventRepository.sumAmountsByExpense(USERNAME));
+        assertTargeted("forEachAmountByUsername", () -> eventRepository.forEachAmountByUsername(USERNAME, amount -> { }));
+
+        event.setAmount(new BigDecimal("120.00"));
+        Event updated = assertTargeted("save (update)", () -> eventRepository.save(event));
+        assertTargeted("deleteByIdAndUsernameAndVersion",
+                () -> eventRepository.deleteByIdAndUsernameAndVersion(updated.getId(), USERNAME, updated.getVersion()));
+    }
+
+    @Test
+    void serviceReadsAndWritesTargetTheShardKey() {
+        assertTargeted("createEvent (income)", () -> eventService.createEvent(new CreateEventDto("Salary", new BigDecimal("500.00"), false, false, USERNAME)));
+        Event rent = assertTargeted("createEvent (expense)", () -> eventService.createEvent(new CreateEventDto("Rent", new BigDecimal("300.00"), true, false, USERNAME)));
+
+        assertTargeted("editEvent", () -> eventService.editEvent(USERNAME,
+                new EditEventDto(rent.getId(), "Rent", new BigDecimal("600.00"), true, rent.getDateTime())));
+        assertTargeted("importJson", () -> importJson("[{\"title\":\"Food\",\"amount\":20,\"expense\":true,\"paid\":false,\"username\":\"" + USERNAME + "\"}]"));
+
+        assertTargeted("getAllEventsByUsername", () -> eventService.getAllEventsByUsername(USERNAME));
+        assertTargeted("getEventsPage", () -> eventService.getEventsPage(USERNAME, null, 1));
+        String cursor = eventService.getEventsPage(USERNAME, null, 1).nextCursor();
+        assertTargeted("getEventsPage (cursor)", () -> eventService.getEventsPage(USERNAME, cursor, 1));
+        assertTargeted("writeAllEventsAsNdjson", () -> {
+            try {
+                eventService.writeAllEventsAsNdjson(USERNAME, new ByteArrayOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        });
+        assertTargeted("getSummary", () -> eventService.getSummary(USERNAME));
+        assertTargeted("getPaidEvents", () -> eventService.getPaidEvents(USERNAME));
+        assertTargeted("getUnPaidEvents", () -> eventService.getUnPaidEvents(USERNAME));
+        assertTargeted("getKvittStatus", () -> eventService.getKvittStatus(USERNAME));
+
+        assertTargeted("deleteEvent", () -> {
+            eventService.deleteEvent(USERNAME, rent.getId());
+            return null;
+        });
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private <T> T assertTargeted(String operation, Supplier<T> call) {
+        double before = untargetedCommands();
+        T result = call.get();
+        assertEquals(before, untargetedCommands(), operation + " sent a command on events without username");
+        return result;
+    }
+
+    private double untargetedCommands() {
+        return meterRegistry.find("kvitt.mongo.untargeted").counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    private Object importJson(String json) {
+        try {
+            return eventImportService.importJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package se.johan.kvitt.event.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import se.johan.kvitt.MongoIntegrationTest;
+import se.johan.kvitt.event.dto.response.EventImportErrorDTO;
+import se.johan.kvitt.event.dto.response.EventImportResponseDTO;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * En felaktig rad avvisas utan att resten av importen stoppas.
+ */
+class EventImportServiceTest extends MongoIntegrationTest {
+
+    private static final String USERNAME = "import-test";
+
+    @Autowired
+    private EventImportService eventImportService;
+
+    @Autowired
+    private EventLedgerService eventLedgerService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.remove(query(where("username").is(USERNAME)), Event.class);
+        mongoTemplate.remove(query(where("username").is(USERNAME)), EventLedger.class);
+    }
+
+    @Test
+    void jsonArrayContinuesAfterInvalidRows() throws IOException {
+        EventImportResponseDTO response = eventImportService.importJson(input("""
+                [
+                  {"title": "Salary", "amount": 100, "expense": false, "username": "import-test"},
+                  {"title": "Rent", "amount": "not a number", "expense": true, "username": "import-test"},
+                  {"title": "Food", "amount": 10, "expense": true, "tags": {"nested": [1, 2]}, "username": "import-test"},
+                  {"title": "", "amount": 5, "expense": true, "username": "import-test"},
+                  {"title": "Bus", "amount": {"value": 20}, "expense": true, "username": "import-test"},
+                  {"title": "Coffee", "amount": 5, "expense": true, "username": "import-test"}
+                ]
+                """));
+
+        assertEquals(3, response.imported());
+        assertEquals(3, response.rejected());
+        assertEquals(List.of(2L, 4L, 5L), rows(response));
+        assertImported(3, "115");
+    }
+
+    @Test
+    void ndjsonContinuesAfterInvalidRows() throws IOException {
+        EventImportResponseDTO response = eventImportService.importJson(input("""
+                {"title": "Salary", "amount": 100, "expense": false, "username": "import-test"}
+                {"title": "Rent", "amount": "not a number", "expense": true, "username": "import-test"}
+                "not an event"
+                {"title": "Food", "amount": 10, "expense": true, "username": "import-test"}
+                """));
+
+        assertEquals(2, response.imported());
+        assertEquals(2, response.rejected());
+        assertEquals(List.of(2L, 3L), rows(response));
+        assertImported(2, "110");
+    }
+
+    @Test
+    void malformedJsonStopsTheImportButKeepsEarlierRows() throws IOException {
+        EventImportResponseDTO response = eventImportService.importJson(input("""
+                {"title": "Salary", "amount": 100, "expense": false, "username": "import-test"}
+                {"title": "Rent", "amount": 
+                """));
+
+        assertEquals(1, response.imported());
+        assertEquals(1, response.rejected());
+        assertEquals(List.of(2L), rows(response));
+        assertImported(1, "100");
+    }
+
+    @Test
+    void csvContinuesAfterInvalidRows() throws IOException {
+        EventImportResponseDTO response = eventImportService.importCsv(input("""
+                title,amount,expense,paid,username
+                Salary,100,false,false,import-test
+                Rent,not a number,true,false,import-test
+                "Food, groceries",10,true,false,import-test
+                ,5,true,false,import-test
+                Coffee,-5,true,false,import-test
+                Bus,20,true,false,import-test
+                """));
+
+        assertEquals(3, response.imported());
+        assertEquals(3, response.rejected());
+        assertEquals(List.of(3L, 5L, 6L), rows(response));
+        assertImported(3, "130");
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private void assertImported(long count, String totalAmount) {
+        List<Event> events = mongoTemplate.find(query(where("username").is(USERNAME)), Event.class);
+        assertEquals(count, events.size());
+        assertEquals(0, new BigDecimal(totalAmount).compareTo(events.stream()
+                .map(Event::getAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add)));
+
+        // Ledgern ska bara räkna de importerade raderna
+        EventLedger ledger = eventLedgerService.getLedger(USERNAME);
+        assertEquals(0, new BigDecimal(totalAmount).compareTo(ledger.getTotalIncome().add(ledger.getTotalExpense())));
+    }
+
+    private static List<Long> rows(EventImportResponseDTO response) {
+        return response.errors().stream()
+                .map(EventImportErrorDTO::row)
+                .toList();
+    }
+
+    private static InputStream input(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
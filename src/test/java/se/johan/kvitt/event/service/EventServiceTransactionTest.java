@@ -0,0 +1,95 @@
+package se.johan.kvitt.event.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import se.johan.kvitt.MongoIntegrationTest;
+import se.johan.kvitt.event.dto.request.CreateEventDto;
+import se.johan.kvitt.event.dto.request.EditEventDto;
+import se.johan.kvitt.event.model.Event;
+import se.johan.kvitt.event.model.EventLedger;
+import se.johan.kvitt.event.repository.EventRepository;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Ett event och dess ledger skrivs i samma transaktion: misslyckas ledgern ska eventet inte ändras.
+ */
+class EventServiceTransactionTest extends MongoIntegrationTest {
+
+    private static final String USERNAME = "transaction-test";
+
+    @Autowired
+    private EventService eventService;
+
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @MockitoSpyBean
+    private EventLedgerService eventLedgerService;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.remove(query(where("username").is(USERNAME)), Event.class);
+        mongoTemplate.remove(query(where("username").is(USERNAME)), EventLedger.class);
+    }
+
+    @Test
+    void createIsRolledBackWhenLedgerUpdateFails() {
+        doThrow(new DataAccessResourceFailureException("ledger unavailable"))
+                .when(eventLedgerService).recordCreated(any(Event.class));
+
+        assertThrows(DataAccessResourceFailureException.class,
+                () -> eventService.createEvent(new CreateEventDto("Rent", new BigDecimal("100.00"), true, false, USERNAME)));
+
+        assertEquals(0, mongoTemplate.count(query(where("username").is(USERNAME)), Event.class));
+    }
+
+    @Test
+    void editIsRolledBackWhenLedgerUpdateFails() {
+        Event created = eventService.createEvent(new CreateEventDto("Rent", new BigDecimal("100.00"), true, false, USERNAME));
+        EventLedger ledgerBefore = eventLedgerService.getLedger(USERNAME);
+        Event stored = eventRepository.findByIdAndUsername(created.getId(), USERNAME).orElseThrow();
+
+        doThrow(new DataAccessResourceFailureException("ledger unavailable"))
+                .when(eventLedgerService).recordEdited(any(Event.class), any(Event.class));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> eventService.editEvent(USERNAME,
+                new EditEventDto(created.getId(), "Rent", new BigDecimal("250.00"), true, created.getDateTime())));
+
+        Event afterFailure = eventRepository.findByIdAndUsername(created.getId(), USERNAME).orElseThrow();
+        assertEquals(0, new BigDecimal("100.00").compareTo(afterFailure.getAmount()));
+        assertEquals(stored.getVersion(), afterFailure.getVersion());
+        assertEquals(ledgerBefore.getRevision(), eventLedgerService.getLedger(USERNAME).getRevision());
+    }
+
+    @Test
+    void deleteIsRolledBackWhenLedgerUpdateFails() {
+        Event created = eventService.createEvent(new CreateEventDto("Salary", new BigDecimal("500.00"), false, false, USERNAME));
+        EventLedger ledgerBefore = eventLedgerService.getLedger(USERNAME);
+
+        doThrow(new DataAccessResourceFailureException("ledger unavailable"))
+                .when(eventLedgerService).recordRemoved(any(Event.class));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> eventService.deleteEvent(USERNAME, created.getId()));
+
+        assertTrue(eventRepository.findByIdAndUsername(created.getId(), USERNAME).isPresent());
+        EventLedger ledgerAfter = eventLedgerService.getLedger(USERNAME);
+        assertEquals(ledgerBefore.getRevision(), ledgerAfter.getRevision());
+        assertEquals(0, ledgerBefore.getTotalIncome().compareTo(ledgerAfter.getTotalIncome()));
+    }
+}
@@ -0,0 +1,31 @@
+package se.johan.kvitt.event.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MinorUnitsTest {
+
+    @Test
+    void twoDecimalsAreExact() {
+        assertEquals(1_050, MinorUnits.of(new BigDecimal("10.50")));
+        assertEquals(1_000, MinorUnits.of(new BigDecimal("10")));
+        assertEquals(new BigDecimal("10.50"), MinorUnits.toAmount(1_050));
+    }
+
+    @Test
+    void legacyAmountWithThreeDecimalsIsRoundedHalfEven() {
+        // Äldre events kan ha sparats med fler decimaler innan valideringen fanns
+        assertEquals(1_000, MinorUnits.of(new BigDecimal("10.005")));
+        assertEquals(1_002, MinorUnits.of(new BigDecimal("10.015")));
+        assertEquals(1_001, MinorUnits.of(new BigDecimal("10.0051")));
+    }
+
+    @Test
+    void amountOutsideLongThrows() {
+        assertThrows(ArithmeticException.class, () -> MinorUnits.of(new BigDecimal("1e20")));
+    }
+}
@@ -0,0 +1,282 @@
+package se.johan.kvitt.event.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.johan.kvitt.event.model.Event;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Jämför SettlementIndex med den fullständiga beräkningen i EventSettlementEngine.plan.
+ * Listan {@code stored} motsvarar databasen: efter varje settle skrivs paid och version
+ * tillbaka på samma sätt som EventSettlementEngine gör med sina versionerade bulk-uppdateringar.
+ */
+class SettlementIndexTest {
+
+    private static final String USERNAME = "settlement-test";
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private final List<Event> stored = new ArrayList<>();
+    private SettlementIndex index;
+    private BigDecimal totalIncome;
+    private int nextId;
+
+    @BeforeEach
+    void setUp() {
+        stored.clear();
+        nextId = 0;
+        totalIncome = BigDecimal.ZERO;
+        index = SettlementIndex.of(USERNAME, List.of(), 0L);
+    }
+
+    @Test
+    void randomSequencesMatchFullPlan() {
+        for (long seed = 0; seed < 300; seed++) {
+            Random random = new Random(seed);
+            setUp();
+            totalIncome = amount(random.nextInt(20_000));
+            // Få olika tidpunkter så att många utgifter delar dateTime
+            for (int i = 0; i < random.nextInt(25); i++) {
+                stored.add(expense(START.plusMinutes(random.nextInt(10)), amount(1 + random.nextInt(2_000)), false));
+            }
+            rebuildFromFullSettlement();
+
+            for (int step = 0; step < 40; step++) {
+                switch (stored.isEmpty() ? 0 : random.nextInt(5)) {
+                    case 0 -> insert(expense(START.plusMinutes(random.nextInt(10)), amount(1 + random.nextInt(2_000)), random.nextBoolean()));
+                    case 1 -> remove(stored.get(random.nextInt(stored.size())));
+                    case 2 -> edit(stored.get(random.nextInt(stored.size())), amount(1 + random.nextInt(2_000)), null);
+                    case 3 -> edit(stored.get(random.nextInt(stored.size())), null, START.plusMinutes(random.nextInt(10)));
+                    default -> totalIncome = amount(random.nextInt(20_000));
+                }
+                assertSettlesLikeFullPlan("seed " + seed + ", step " + step);
+            }
+        }
+    }
+
+    @Test
+    void equalDateTimesAreOrderedById() {
+        Event first = expense(START, amount(600), false);
+        Event second = expense(START, amount(600), false);
+        stored.addAll(List.of(first, second));
+        totalIncome = amount(1_000);
+        rebuildFromFullSettlement();
+
+        // Bara den första (lägst id) ryms, oavsett i vilken ordning de lästes
+        assertTrue(first.isPaid());
+        assertFalse(second.isPaid());
+
+        Event third = expense(START, amount(300), false);
+        insert(third);
+        assertSettlesLikeFullPlan("insert tie");
+        assertFalse(third.isPaid());
+    }
+
+    @Test
+    void insertBeforeFrontierUnpaysTheTail() {
+        Event last = expense(START.plusDays(3), amount(1_000), false);
+        stored.addAll(List.of(
+                expense(START.plusDays(1), amount(1_000), false),
+                expense(START.plusDays(2), amount(1_000), false),
+                last));
+        totalIncome = amount(3_000);
+        rebuildFromFullSettlement();
+        assertTrue(stored.stream().allMatch(Event::isPaid));
+
+        Event earlier = expense(START, amount(500), false);
+        insert(earlier);
+
+        assertTrue(earlier.isPaid());
+        assertFalse(last.isPaid());
+    }
+
+    @Test
+    void paidExpenseMovedPastFrontierBecomesUnpaid() {
+        Event moved = expense(START.plusDays(1), amount(1_000), false);
+        Event paid = expense(START.plusDays(2), amount(1_000), false);
+        Event unpaid = expense(START.plusDays(3), amount(5_000), false);
+        stored.addAll(List.of(moved, paid, unpaid));
+        totalIncome = amount(2_500);
+        rebuildFromFullSettlement();
+        assertTrue(moved.isPaid());
+        assertFalse(unpaid.isPaid());
+
+        edit(moved, null, START.plusDays(4));
+
+        assertFalse(moved.isPaid());
+        assertTrue(paid.isPaid());
+    }
+
+    @Test
+    void removingLastElementFreesFundsOnlyForLaterExpenses() {
+        Event first = expense(START, amount(1_000), false);
+        Event last = expense(START.plusDays(1), amount(1_000), false);
+        stored.addAll(List.of(first, last));
+        totalIncome = amount(1_500);
+        rebuildFromFullSettlement();
+
+        remove(last);
+        remove(first);
+        assertEquals(0, index.size());
+
+        insert(expense(START.plusDays(2), amount(1_500), false));
+        assertTrue(stored.get(0).isPaid());
+    }
+
+    @Test
+    void amountEditInTouchedSlot() {
+        stored.add(expense(START, amount(1_000), false));
+        totalIncome = amount(1_500);
+        rebuildFromFullSettlement();
+
+        // Utgiften ändras innan indexet hunnit räkna om efter insättningen
+        Event inserted = expense(START.plusDays(1), amount(400), false);
+        stored.add(inserted);
+        index.insert(copy(inserted));
+        Event before = copy(inserted);
+        inserted.setAmount(amount(800));
+        inserted.setVersion(inserted.getVersion() + 1);
+        assertTrue(index.replace(before, copy(inserted)));
+
+        assertSettlesLikeFullPlan("touched edit");
+        assertFalse(inserted.isPaid());
+    }
+
+    @Test
+    void removeOfUnknownExpenseReturnsFalse() {
+        stored.add(expense(START, amount(100), false));
+        rebuildFromFullSettlement();
+
+        assertFalse(index.remove(expense(START, amount(100), false)));
+    }
+
+    @Test
+    void paidExpensesMustComeFirst() {
+        List<Event> expenses = List.of(
+                expense(START, amount(100), false),
+                expense(START.plusDays(1), amount(100), true));
+
+        assertThrows(IllegalArgumentException.class, () -> SettlementIndex.of(USERNAME, expenses, 0L));
+    }
+
+    // --- Privata Hjälpmetoder ---
+
+    private void insert(Event expense) {
+        stored.add(expense);
+        index.insert(copy(expense));
+        assertSettlesLikeFullPlan("insert " + expense.getId());
+    }
+
+    private void remove(Event expense) {
+        stored.remove(expense);
+        assertTrue(index.remove(copy(expense)), "remove " + expense.getId());
+        assertSettlesLikeFullPlan("remove " + expense.getId());
+    }
+
+    /**
+     * Ändrar belopp och/eller datum som EventService gör: före-bilden saknar version,
+     * efter-bilden har den version som sparningen gav.
+     */
+    private void edit(Event expense, BigDecimal amount, LocalDateTime dateTime) {
+        Event before = new Event(expense.getId(), null, expense.getAmount(), true, expense.getDateTime(), expense.isPaid(), USERNAME);
+        if (amount != null) {
+            expense.setAmount(amount);
+        }
+        if (dateTime != null) {
+            expense.setDateTime(dateTime);
+        }
+        expense.setVersion(expense.getVersion() + 1);
+
+        assertTrue(index.replace(before, copy(expense)), "replace " + expense.getId());
+        assertSettlesLikeFullPlan("edit " + expense.getId());
+    }
+
+    /**
+     * Kör en fullständig settlement på de lagrade utgifterna och bygger indexet från resultatet,
+     * som EventSettlementEngine.doResettle.
+     */
+    private void rebuildFromFullSettlement() {
+        SettlementPlan plan = EventSettlementEngine.plan(sortedExpenses(), totalIncome);
+        apply(plan);
+        index = SettlementIndex.of(USERNAME, sortedExpenses().stream().map(this::copy).toList(), 0L);
+    }
+
+    private void assertSettlesLikeFullPlan(String message) {
+        SettlementPlan expected = EventSettlementEngine.plan(sortedExpenses(), totalIncome);
+        SettlementPlan actual = index.settle(totalIncome);
+
+        assertEquals(ids(expected.toPay()), ids(actual.toPay()), message + ": toPay");
+        assertEquals(ids(expected.toUnpay()), ids(actual.toUnpay()), message + ": toUnpay");
+        assertEquals(0, expected.paidExpenseAmount().compareTo(actual.paidExpenseAmount()), message + ": paidExpenseAmount");
+        assertEquals(expected.unpaidCount(), actual.unpaidCount(), message + ": unpaidCount");
+        assertEquals(expected.lastKvittDate(), actual.lastKvittDate(), message + ": lastKvittDate");
+
+        // Indexet måste skicka med den version som ligger i databasen, annars matchar inte bulk-uppdateringen
+        for (Event event : actual.toPay()) {
+            assertEquals(find(event.getId()).getVersion(), event.getVersion(), message + ": version of " + event.getId());
+        }
+        for (Event event : actual.toUnpay()) {
+            assertEquals(find(event.getId()).getVersion(), event.getVersion(), message + ": version of " + event.getId());
+        }
+
+        apply(actual);
+    }
+
+    private void apply(SettlementPlan plan) {
+        plan.toPay().forEach(event -> write(find(event.getId()), true));
+        plan.toUnpay().forEach(event -> write(find(event.getId()), false));
+    }
+
+    private static void write(Event event, boolean paid) {
+        event.setPaid(paid);
+        event.setVersion(event.getVersion() + 1);
+    }
+
+    private List<Event> sortedExpenses() {
+        List<Event> sorted = new ArrayList<>(stored);
+        sorted.sort(EventSettlementEngine.SETTLEMENT_ORDER);
+        return sorted;
+    }
+
+    private Event find(String id) {
+        return stored.stream()
+                .filter(event -> event.getId().equals(id))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private Event expense(LocalDateTime dateTime, BigDecimal amount, boolean paid) {
+        // Id:n med fast längd sorteras som ObjectId
+        Event event = new Event(String.format("%024x", nextId++), "Expense", amount, true, dateTime, paid, USERNAME);
+        event.setVersion(0L);
+        return event;
+    }
+
+    private Event copy(Event event) {
+        Event copy = new Event(event.getId(), event.getTitle(), event.getAmount(), event.isExpense(),
+                event.getDateTime(), event.isPaid(), event.getUsername());
+        copy.setVersion(event.getVersion());
+        return copy;
+    }
+
+    private static BigDecimal amount(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, 2);
+    }
+
+    private static Set<String> ids(List<Event> events) {
+        return events.stream()
+                .map(Event::getId)
+                .collect(Collectors.toSet());
+    }
+}